@@ -0,0 +1,83 @@
+package edu.seg2105.client.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Working out what one inbound line is and cutting out its arguments.
+ * regex is the server's old path (startsWith per command, then
+ * split("\\s+")); table is CommandTable plus CommandLine, with the
+ * server's three commands or padded to 40 to show that lookup does not
+ * grow with the table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+  @Param({ "chat", "login", "join", "whisper" })
+  public String line;
+
+  @Param({ "3", "40" })
+  public int commands;
+
+  private String text;
+  private CommandTable<Integer> table;
+
+  @Setup
+  public void setUp() {
+    switch (line) {
+      case "login":   text = "#login alice"; break;
+      case "join":    text = "#join design-review"; break;
+      case "whisper": text = "#whisper bob are we still on for three?"; break;
+      default:        text = "are we still on for the design review at three?";
+    }
+    CommandTable.Builder<Integer> builder = CommandTable.<Integer>builder()
+        .add("#login", 1).add("#join", 2).add("#whisper", 3);
+    for (int i = 3; i < commands; i++) builder.add("#command" + i, i + 1);
+    table = builder.build();
+  }
+
+  @Benchmark
+  public Object regex() {
+    if (text.startsWith("#login")) {
+      String[] parts = text.split("\\s+", 2);
+      return (parts.length >= 2) ? parts[1].trim() : "";
+    }
+    if (text.startsWith("#join") || text.startsWith("#leave")) {
+      String[] parts = text.trim().split("\\s+");
+      return (parts.length == 2) ? parts[1] : null;
+    }
+    if (text.startsWith("#whisper")) {
+      String[] parts = text.trim().split("\\s+", 3);
+      return (parts.length == 3) ? parts[2] : null;
+    }
+    return text;
+  }
+
+  @Benchmark
+  public Object table() {
+    Integer command = table.lookup(text);
+    if (command == null) return text;
+    CommandLine parsed = CommandLine.of(text);
+    switch (command) {
+      case 1:  return parsed.rest(0);
+      case 2:  return parsed.argCount() == 1 ? parsed.arg(0) : null;
+      case 3:  return parsed.rest(1);
+      default: return parsed;
+    }
+  }
+}
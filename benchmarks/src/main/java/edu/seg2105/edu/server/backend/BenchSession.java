@@ -0,0 +1,62 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A connection with no socket: keeps its info map and counts what it is
+ * sent, touching the encoded bytes the way an engine's session would.
+ */
+final class BenchSession implements ClientSession {
+  private final Map<String, Object> info = new ConcurrentHashMap<>();
+  private final boolean frames;
+  long received;
+  long bytes;
+
+  BenchSession(boolean frames) {
+    this.frames = frames;
+  }
+
+  @Override
+  public Object getInfo(String infoType) { return info.get(infoType); }
+
+  @Override
+  public void setInfo(String infoType, Object value) {
+    if (value == null) info.remove(infoType);
+    else info.put(infoType, value);
+  }
+
+  @Override
+  public void sendToClient(Object msg) throws IOException {
+    send(new OutboundMessage(String.valueOf(msg)));
+  }
+
+  @Override
+  public void send(OutboundMessage msg) {
+    received++;
+    bytes += msg.bytes(frames).length;
+  }
+
+  @Override
+  public void close() {}
+
+  /** A server that relays without printing, with n sessions logged in as user0..user(n-1). */
+  static EchoServer quietServer() throws IOException {
+    ServerLog.configure(ServerLog.Level.OFF, ServerLog.Overflow.DROP, ServerLog.DEFAULT_CAPACITY,
+        null, ServerLog.DEFAULT_ROLL_BYTES, 0);
+    EchoServer server = new EchoServer(0);
+    server.setHistorySize(0);
+    return server;
+  }
+
+  static BenchSession[] logIn(EchoServer server, int n, boolean frames) {
+    BenchSession[] sessions = new BenchSession[n];
+    for (int i = 0; i < n; i++) {
+      sessions[i] = new BenchSession(frames);
+      server.clientConnected(sessions[i]);
+      server.handleMessageFromClient("#login user" + i, sessions[i]);
+    }
+    return sessions;
+  }
+}
@@ -0,0 +1,71 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.seg2105.client.common.FrameCodec;
+
+/** Encoding and decoding one message in each wire format. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+  @Param({ "short", "long", "unicode" })
+  public String sample;
+
+  private String text;
+  private byte[] framed;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() {
+    switch (sample) {
+      case "short": text = "cora> hi"; break;
+      case "unicode": text = "bibi> caf\u00e9 \u2013 na\u00efve \u65e5\u672c\u8a9e \u043f\u0440\u0438\u0432\u0435\u0442"; break;
+      default:
+        text = "a1> are we still on for the design review at three, or did it move to tomorrow?";
+    }
+    framed = FrameCodec.encode(text);
+    byte[] message = SerializedStrings.encode(text);
+    serialized = new byte[SerializedStrings.STREAM_HEADER.length + message.length];
+    System.arraycopy(SerializedStrings.STREAM_HEADER, 0, serialized, 0, SerializedStrings.STREAM_HEADER.length);
+    System.arraycopy(message, 0, serialized, SerializedStrings.STREAM_HEADER.length, message.length);
+  }
+
+  @Benchmark
+  public byte[] frameEncode() {
+    return FrameCodec.encode(text);
+  }
+
+  @Benchmark
+  public String frameDecode() throws IOException {
+    return new FrameCodec.Decoder().next(ByteBuffer.wrap(framed));
+  }
+
+  @Benchmark
+  public byte[] serializedEncode() {
+    return SerializedStrings.encode(text);
+  }
+
+  /** A fresh decoder each time, so this includes reading the stream header. */
+  @Benchmark
+  public String serializedDecode() throws IOException {
+    return new SerializedStrings.Decoder().next(ByteBuffer.wrap(serialized));
+  }
+}
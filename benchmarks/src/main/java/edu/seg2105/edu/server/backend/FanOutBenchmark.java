@@ -0,0 +1,55 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One chat line relayed to everyone in the lobby, at 10, 100 and 1000
+ * connections: the per-message cost grows with the member count, the
+ * encoding should not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+  @Param({ "10", "100", "1000" })
+  public int connections;
+
+  @Param({ "true", "false" })
+  public boolean frames;
+
+  private EchoServer server;
+  private BenchSession sender;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = BenchSession.quietServer();
+    sender = BenchSession.logIn(server, connections, frames)[0];
+  }
+
+  @Benchmark
+  public long chatToLobby() {
+    server.handleMessageFromClient("are we still on for the review at three?", sender);
+    return sender.received;
+  }
+
+  @Benchmark
+  public int serverMessageToLobby() {
+    return server.broadcastToRoom(RoomIndex.LOBBY, "SERVER MESSAGE> The build is green again.");
+  }
+}
@@ -0,0 +1,94 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Logins per second: connect, "#password", "#login", disconnect, with no
+ * password store ("off"), with one and every password hashed ("hash"),
+ * and with one and the verified-password cache warm ("cached"), which is
+ * what a reconnect storm within the cache window costs. Run with -t N
+ * (up to one per core) to see the hashing pool shared by N connecting
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+  private static final int USERS = 8; // per thread; setting each one up costs a hash
+  private static final String PASSWORD = "correct horse battery staple";
+
+  @Param({ "off", "hash", "cached" })
+  public String credentials;
+
+  private EchoServer server;
+  private File file;
+  private CredentialVerifier verifier;
+
+  /** Each benchmark thread logs in as its own users, so ids never collide (up to one thread per core). */
+  @State(Scope.Thread)
+  public static class Client {
+    private static int threads;
+    private int base;
+    private int next;
+
+    @Setup
+    public void setUp() {
+      synchronized (Client.class) {
+        base = (threads++ % Runtime.getRuntime().availableProcessors()) * USERS;
+      }
+    }
+
+    String loginId() {
+      return "user" + (base + (next++ % USERS));
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    server = BenchSession.quietServer();
+    if (credentials.equals("off")) return;
+    file = File.createTempFile("credentials", ".txt");
+    file.delete();
+    CredentialStore store = new CredentialStore(file);
+    for (int i = 0; i < USERS * Runtime.getRuntime().availableProcessors(); i++) {
+      store.setPassword("user" + i, PASSWORD);
+    }
+    verifier = new CredentialVerifier(store, CredentialVerifier.defaultThreads(), CredentialVerifier.DEFAULT_QUEUE,
+        credentials.equals("cached") ? TimeUnit.HOURS.toMillis(1) : 0);
+    server.setCredentials(verifier);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (verifier != null) verifier.close();
+    if (file != null) file.delete();
+  }
+
+  @Benchmark
+  public long login(Client client) {
+    BenchSession session = new BenchSession(false);
+    server.clientConnected(session);
+    if (verifier != null) server.handleMessageFromClient("#password " + PASSWORD, session);
+    server.handleMessageFromClient("#login " + client.loginId(), session);
+    server.clientDisconnected(session);
+    return session.received;
+  }
+}
@@ -0,0 +1,54 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EchoServer.handleMessageFromClient for one logged-in client alone in
+ * the lobby: command parsing and routing plus a one-member fan-out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHandlingBenchmark {
+  private EchoServer server;
+  private BenchSession alice;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = BenchSession.quietServer();
+    alice = BenchSession.logIn(server, 2, true)[0];
+  }
+
+  @Benchmark
+  public long chatLine() {
+    server.handleMessageFromClient("are we still on for the review at three?", alice);
+    return alice.received;
+  }
+
+  @Benchmark
+  public long whisper() {
+    server.handleMessageFromClient("#whisper user1 are we still on for three?", alice);
+    return alice.received;
+  }
+
+  @Benchmark
+  public long badCommand() {
+    server.handleMessageFromClient("#join", alice); // usage reply
+    return alice.received;
+  }
+}
@@ -0,0 +1,106 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A chat line from a client to the server and back over loopback, on
+ * each engine. The client speaks OCSF's serialized strings, like
+ * ChatClient on its default wire, and is alone in the lobby, so the echo
+ * is the only thing it receives.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+  @Param({ "ocsf", "nio", "virtual" })
+  public String engine;
+
+  private ServerEngine running;
+  private Socket socket;
+  private ObjectOutputStream out;
+  private ObjectInputStream in;
+  private int sent;
+
+  @Setup
+  public void setUp() throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    EchoServer server = BenchSession.quietServer();
+    switch (engine) {
+      case "nio": running = new NioServerEngine(server, port, 1); break;
+      case "virtual": running = new VirtualThreadServerEngine(server, port); break;
+      default:
+        server.setPort(port);
+        running = server;
+    }
+    running.listen();
+
+    socket = connect(port);
+    socket.setTcpNoDelay(true);
+    out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    out.flush();
+    in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+    send("#login bench");
+    String reply = (String) in.readObject();
+    if (!reply.equals("bench has logged on.")) throw new IllegalStateException(reply);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    socket.close();
+    running.close();
+  }
+
+  @Benchmark
+  public String chatRoundTrip() throws Exception {
+    String line = "ping " + sent++;
+    send(line);
+    String echo = (String) in.readObject();
+    if (!echo.endsWith(line)) throw new IllegalStateException(echo);
+    return echo;
+  }
+
+  /** Engines may bind their listening socket on another thread. */
+  private static Socket connect(int port) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (true) {
+      try {
+        return new Socket("localhost", port);
+      } catch (IOException notYet) {
+        if (System.currentTimeMillis() > deadline) throw notYet;
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private void send(String text) throws IOException {
+    out.writeObject(text);
+    out.reset();
+    out.flush();
+  }
+}
@@ -1,26 +1,214 @@
 package edu.seg2105.client.backend;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import ocsf.client.AbstractClient;
+import edu.seg2105.client.common.Authentication;
 import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.Heartbeat;
+import edu.seg2105.client.common.Presence;
+import edu.seg2105.client.common.RetryHint;
+import edu.seg2105.client.common.SequenceTag;
+import edu.seg2105.client.common.WriteBatching;
 
 public class ChatClient extends AbstractClient {
+  // reconnect backoff for resumable clients: 250 ms doubling to 8 s, each plus up to half
+  // again at random, for up to a minute
+  static final long RECONNECT_FIRST_DELAY_MILLIS = 250;
+  static final long RECONNECT_MAX_DELAY_MILLIS = 8_000;
+  static final long RECONNECT_GIVE_UP_MILLIS = 60_000;
+
+  /** Sequence numbers remembered to drop a resume's repeats; far more than one replay holds. */
+  static final int RECENT_SEQS = 4096;
+
+  /** Sends every client's pings; one daemon thread is plenty. */
+  private static final ScheduledExecutorService HEARTBEATS =
+      Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "chat-heartbeat");
+        t.setDaemon(true);
+        return t;
+      });
+
   private final ChatIF clientUI;
   private final String loginId;
+  private final boolean preferFrames;             // ask the server for the framed protocol
+  private final WriteBatching batching;           // framed sends only: OCSF flushes each message
+  private volatile FramedConnection framed;       // null while on OCSF serialization
+  private final boolean resumable;                // log in with #resume, reconnect on a drop
+  private final boolean compress;                 // framed only: offer Deflate with the upgrade
+  private final String password;                  // null: log in without one
+  private volatile long lastSeq;                  // highest "#seq n" the server sent us
+  private final Set<Long> recentSeqs = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) { return size() > RECENT_SEQS; }
+  }); // reader thread only
+  private final AtomicBoolean reconnecting = new AtomicBoolean();
+  private volatile boolean everConnected;         // a failed first connect is not a drop
+  private volatile boolean stopReconnecting;      // #logoff while retrying
+  private final Object sendLock = new Object();   // OCSF writes are not thread-safe; pings come from another thread
+  private volatile long heartbeatMillis;          // 0: no pings
+  private ScheduledFuture<?> heartbeatTask;       // guarded by this
+  private volatile long lastHeard;                // when the server last sent anything
+  private volatile long retryAfterMillis;         // the server was busy: log in again after this
+  private volatile Roster roster;                 // written under loginLock; null: not kept
+  private boolean loginSent;                      // guarded by loginLock: this connection's login is out
+  private final Object loginLock = new Object();  // the login line goes out before any #presence
 
   private volatile boolean shuttingDown = false;
   private volatile boolean userInitiatedClose = false; // for #logoff
   private volatile boolean exitRequested = false;       // for #quit
 
   public ChatClient(String loginId, String host, int port, ChatIF clientUI) throws Exception {
+    this(loginId, host, port, clientUI, false);
+  }
+
+  public ChatClient(String loginId, String host, int port, ChatIF clientUI, boolean preferFrames)
+      throws Exception {
+    this(loginId, host, port, clientUI, preferFrames, WriteBatching.IMMEDIATE);
+  }
+
+  public ChatClient(String loginId, String host, int port, ChatIF clientUI, boolean preferFrames,
+      WriteBatching batching) throws Exception {
+    this(loginId, host, port, clientUI, preferFrames, batching, false);
+  }
+
+  /**
+   * Resumable clients log in with "#resume <loginId> <lastSeq>", so the
+   * server tags what it relays with sequence numbers and, after a drop or
+   * a #logoff, replays what was said while this client was away. An
+   * unexpected drop is retried with exponential backoff instead of exiting.
+   */
+  public ChatClient(String loginId, String host, int port, ChatIF clientUI, boolean preferFrames,
+      WriteBatching batching, boolean resumable) throws Exception {
+    this(loginId, host, port, clientUI, preferFrames, batching, resumable, false);
+  }
+
+  /** compress: offer compression when asking for frames (implied by it). */
+  public ChatClient(String loginId, String host, int port, ChatIF clientUI, boolean preferFrames,
+      WriteBatching batching, boolean resumable, boolean compress) throws Exception {
+    this(loginId, host, port, clientUI, preferFrames, batching, resumable, compress, null);
+  }
+
+  /** password: sent with every login, for servers started with --credentials (null: none). */
+  public ChatClient(String loginId, String host, int port, ChatIF clientUI, boolean preferFrames,
+      WriteBatching batching, boolean resumable, boolean compress, String password) throws Exception {
     super(host, port);
     this.clientUI = clientUI;
     this.loginId = loginId;
-    openConnection(); // triggers connectionEstablished()
+    this.preferFrames = preferFrames || compress;
+    this.compress = compress;
+    this.batching = batching;
+    this.resumable = resumable;
+    this.password = password;
+    connect(); // triggers connectionEstablished()
+    setHeartbeat(Heartbeat.DEFAULT_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Pings the server every intervalMillis (0 stops), and drops a connection
+   * the server has said nothing on for Heartbeat.MISSES intervals: the way
+   * to notice a server that went away without closing the socket.
+   */
+  public synchronized void setHeartbeat(long intervalMillis) {
+    if (heartbeatTask != null) heartbeatTask.cancel(false);
+    heartbeatTask = null;
+    heartbeatMillis = Math.max(0, intervalMillis);
+    if (heartbeatMillis > 0) {
+      heartbeatTask = HEARTBEATS.scheduleAtFixedRate(this::heartbeat, heartbeatMillis, heartbeatMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void heartbeat() {
+    if (reconnecting.get() || !isConnectedNow()) return;
+    if (System.currentTimeMillis() - lastHeard > Heartbeat.MISSES * heartbeatMillis) {
+      // reported like any other drop: exit, or reconnect if resumable
+      try { disconnect(); } catch (IOException ignore) {}
+      return;
+    }
+    try { send(Heartbeat.PING); } catch (IOException ignore) {}
+  }
+
+  /**
+   * Keeps a Roster of who is online from the server's presence updates,
+   * subscribing after this and every later login; off drops it.
+   */
+  public void keepRoster(boolean on) {
+    synchronized (loginLock) {
+      boolean kept = roster != null;
+      if (on == kept) return;
+      roster = on ? new Roster() : null;
+      // not logged in yet: connectionEstablished subscribes after the login line
+      if (!loginSent || !isConnectedNow()) return;
+      try { send(Presence.SUBSCRIBE + (on ? " on" : " off")); } catch (IOException ignore) {}
+    }
+  }
+
+  /** The roster, or null if none is kept. */
+  public Roster roster() { return roster; }
+
+  /** Opens the connection: framed if preferred and the server agrees, else OCSF serialization. */
+  public void connect() throws IOException {
+    if (isConnectedNow()) return;
+    if (preferFrames) {
+      FramedConnection connection = FramedConnection.open(getHost(), getPort(), this, batching, compress);
+      if (connection != null) {
+        framed = connection;
+        connection.start();
+        return;
+      }
+    }
+    framed = null;
+    openConnection();
+  }
+
+  private void send(String message) throws IOException {
+    FramedConnection connection = framed;
+    if (connection != null) {
+      connection.send(message);
+      return;
+    }
+    synchronized (sendLock) {
+      sendToServer(message);
+    }
+  }
+
+  private void disconnect() throws IOException {
+    FramedConnection connection = framed;
+    if (connection != null) connection.close();
+    else closeConnection();
   }
 
   @Override
   protected void connectionEstablished() {
-    try { sendToServer("#login " + loginId); }
+    lastHeard = System.currentTimeMillis();
+    String login = resumable
+        ? SequenceTag.RESUME + " " + loginId + " " + lastSeq
+        : "#login " + loginId;
+    everConnected = true;
+    try {
+      synchronized (loginLock) {
+        loginSent = false;
+        if (password != null) send(Authentication.passwordLine(password));
+        send(login);
+        loginSent = true;
+        Roster kept = roster;
+        if (kept != null) {
+          kept.reset(); // the server sends a fresh snapshot
+          send(Presence.SUBSCRIBE + " on");
+        }
+      }
+    }
     catch (Exception e) {
       clientUI.display("Failed to send login id to server: " + e.getMessage());
       quit();
@@ -29,7 +217,23 @@ public class ChatClient extends AbstractClient {
 
   @Override
   protected void handleMessageFromServer(Object msg) {
-    clientUI.display(msg.toString());
+    lastHeard = System.currentTimeMillis();
+    String text = msg.toString();
+    if (Heartbeat.PONG.equals(text)) return;
+    Roster kept = roster;
+    if (kept != null && kept.apply(text)) return;
+    long retry = RetryHint.millisOf(text);
+    if (retry >= 0) retryAfterMillis = Math.max(1, retry); // shown all the same; the close follows
+    if (resumable) {
+      // only a resumed stream is tagged: anywhere else "#seq" is just text
+      long seq = SequenceTag.seqOf(text);
+      if (seq >= 0) {
+        if (!recentSeqs.add(seq)) return; // came live, and again in the resume's replay
+        if (seq > lastSeq) lastSeq = seq;
+        text = SequenceTag.textOf(text);
+      }
+    }
+    clientUI.display(text);
   }
 
   @Override
@@ -39,29 +243,91 @@ public class ChatClient extends AbstractClient {
 
     if (exitRequested) {
       // we're quitting the app; suppress any prints
-      System.exit(0);
+      exit();
       return;
     }
     if (userInitiatedClose) {
-      System.out.println("Connection closed.");
+      println("Connection closed.");
       // allow future re-logins
       shuttingDown = false;
       userInitiatedClose = false;
+    } else if ((resumable && everConnected) || retryAfterMillis > 0) {
+      shuttingDown = false;
+      // one retry loop at a time; failed attempts report closes of their own
+      if (reconnecting.compareAndSet(false, true)) {
+        Thread retry = new Thread(this::reconnect, "chat-reconnect");
+        retry.setDaemon(true);
+        retry.start();
+      }
     } else {
-      System.out.println("The server has shut down.");
-      System.exit(0);
+      println("The server has shut down.");
+      exit();
     }
   }
 
+  /** Status lines go straight to stdout, after whatever the UI still has to show. */
+  private void println(String line) {
+    clientUI.flush();
+    System.out.println(line);
+  }
+
+  private void exit() {
+    clientUI.flush();
+    System.exit(0);
+  }
+
   @Override
   protected void connectionException(Exception exception) {
     // treat like connectionClosed()
     connectionClosed();
   }
 
+  /**
+   * Retries the connection until it is back, the user gives up on it, or
+   * time runs out. A busy server's retry hint sets the first wait; every
+   * wait is jittered, so clients dropped together come back spread out.
+   */
+  private void reconnect() {
+    println("Connection lost. Reconnecting...");
+    long hint = retryAfterMillis;
+    retryAfterMillis = 0;
+    long giveUp = System.currentTimeMillis() + RECONNECT_GIVE_UP_MILLIS + hint;
+    long delay = Math.max(RECONNECT_FIRST_DELAY_MILLIS, hint);
+    while (!exitRequested && !stopReconnecting) {
+      try { Thread.sleep(jittered(delay)); } catch (InterruptedException e) { break; }
+      try {
+        connect();
+        if (isConnectedNow()) {
+          reconnecting.set(false);
+          // dropped again before we let go: keep going unless its close started a new loop
+          if (isConnectedNow() || !reconnecting.compareAndSet(false, true)) return;
+        }
+      } catch (IOException retry) {
+        // server not back yet
+      }
+      if (System.currentTimeMillis() >= giveUp) {
+        println("The server has shut down.");
+        exit();
+      }
+      delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MILLIS);
+    }
+    // #logoff while we were retrying
+    stopReconnecting = false;
+    reconnecting.set(false);
+  }
+
+  /** delayMillis plus up to half again, at random. */
+  static long jittered(long delayMillis) {
+    return delayMillis + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+  }
+
   /** called by UI for normal user message */
   public void handleMessageFromClientUI(String message) {
-    try { sendToServer(message); }
+    if (reconnecting.get()) {
+      clientUI.display("Reconnecting; message not sent.");
+      return;
+    }
+    try { send(message); }
     catch (Exception e) {
       clientUI.display("Could not send message to server. Terminating client.");
       quit();
@@ -70,19 +336,25 @@ public class ChatClient extends AbstractClient {
 
   /** #logoff: disconnect but keep app alive */
   public void logoff() {
+    if (reconnecting.get()) stopReconnecting = true;
     userInitiatedClose = true;
-    try { closeConnection(); } catch (Exception ignore) {}
+    try { disconnect(); } catch (Exception ignore) {}
   }
 
   /** #quit: exit the app; suppress “server has shut down.” noise */
   public void quit() {
     exitRequested = true;
-    try { closeConnection(); } catch (Exception ignore) {}
+    try { disconnect(); } catch (Exception ignore) {}
     // connectionClosed() will System.exit(0) without printing
     // but if it doesn’t fire promptly, ensure exit anyway:
-    System.exit(0);
+    exit();
   }
 
   public String getLoginId() { return loginId; }
-  public boolean isConnectedNow() { try { return isConnected(); } catch (Exception e) { return false; } }
+  public boolean isConnectedNow() {
+    FramedConnection connection = framed;
+    if (connection != null) return connection.isOpen();
+    try { return isConnected(); } catch (Exception e) { return false; }
+  }
+  public boolean isFramed() { return framed != null; }
 }
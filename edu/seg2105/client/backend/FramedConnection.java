@@ -0,0 +1,179 @@
+package edu.seg2105.client.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.WriteBatching;
+
+/**
+ * ChatClient's connection when it speaks the framed protocol. OCSF's
+ * AbstractClient owns its socket and only does serialization, so this
+ * replaces it for the session: it opens in serialization, asks the server
+ * to switch, and afterwards reads and writes FrameCodec frames, calling
+ * back into the same ChatClient hooks OCSF would.
+ *
+ * Outgoing frames collect in a buffer the size of the byte budget and are
+ * flushed when the batching window closes (immediately with no window),
+ * over a TCP_NODELAY socket.
+ *
+ * Asked to compress, it offers FrameCompression's modes with the upgrade
+ * and, if the server picks one, compresses frames over the threshold and
+ * inflates what the server compressed.
+ */
+final class FramedConnection implements Runnable {
+  private static final byte TC_STRING = 0x74;
+  private static final byte TC_RESET = 0x79;
+  private static final int STREAM_MAGIC = 0xACED0005;
+  private static final int READ_CHUNK = 8192;
+
+  /** Closes every client's batching windows; one daemon thread is plenty. */
+  private static final ScheduledExecutorService FLUSHER =
+      Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "framed-flusher");
+        t.setDaemon(true);
+        return t;
+      });
+
+  private final ChatClient owner;
+  private final Socket socket;
+  private final WriteBatching batching;
+  private final DataInputStream input;
+  private final OutputStream output;
+  private final boolean offerCompression;
+  private FrameCompression compression; // set by negotiate; null: none
+  private boolean flushPending; // guarded by output
+  private volatile boolean readyToStop;
+
+  private FramedConnection(ChatClient owner, Socket socket, WriteBatching batching,
+      boolean offerCompression) throws IOException {
+    this.owner = owner;
+    this.socket = socket;
+    this.batching = batching;
+    this.offerCompression = offerCompression;
+    socket.setTcpNoDelay(true);
+    this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    // a frame that does not fit goes straight through, so this also caps the batch
+    this.output = new BufferedOutputStream(socket.getOutputStream(), batching.byteBudget());
+  }
+
+  /**
+   * Connects and negotiates frames. Returns null, with the socket closed,
+   * if the server declined; the caller then falls back to OCSF.
+   */
+  static FramedConnection open(String host, int port, ChatClient owner, WriteBatching batching,
+      boolean compress) throws IOException {
+    Socket socket = new Socket(host, port);
+    try {
+      FramedConnection connection = new FramedConnection(owner, socket, batching, compress);
+      if (connection.negotiate()) return connection;
+    } catch (IOException e) {
+      // fall through: anything but a clean acknowledgement means no frames
+    }
+    socket.close();
+    return null;
+  }
+
+  private boolean negotiate() throws IOException {
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(request);
+    oos.writeObject(offerCompression
+        ? FrameCodec.UPGRADE_REQUEST + " " + FrameCompression.OFFER : FrameCodec.UPGRADE_REQUEST);
+    oos.flush(); // no reset: the very next byte we send is already a frame
+    output.write(request.toByteArray());
+    output.flush();
+
+    // The reply is one serialized String, as ObjectOutputStream writes it.
+    if (input.readInt() != STREAM_MAGIC) return false;
+    int tc;
+    while ((tc = input.readByte()) == TC_RESET) { /* skip */ }
+    if (tc != TC_STRING) return false;
+    String reply = input.readUTF(); // same modified UTF-8 as TC_STRING
+    if (input.readByte() != TC_RESET) return false;
+    if (!FrameCodec.isUpgradeRequest(reply)) return false;
+    String mode = CommandLine.of(reply).arg(1); // the compression the server picked
+    if (mode == null) return true;
+    compression = offerCompression ? FrameCompression.forMode(mode, FrameCompression.DEFAULT_THRESHOLD) : null;
+    return compression != null;
+  }
+
+  void start() {
+    Thread reader = new Thread(this, "framed-reader");
+    reader.start();
+  }
+
+  void send(String text) throws IOException {
+    byte[] frame = FrameCodec.encode(text);
+    if (compression != null) frame = compression.compress(frame);
+    synchronized (output) {
+      output.write(frame);
+      if (batching.isImmediate()) {
+        output.flush();
+      } else if (!flushPending) {
+        flushPending = true;
+        FLUSHER.schedule(this::flushQuietly, batching.windowMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /** Sends whatever the current window collected; a dead socket shows up in the reader. */
+  private void flushQuietly() {
+    synchronized (output) {
+      flushPending = false;
+      try { output.flush(); } catch (IOException ignore) {}
+    }
+  }
+
+  boolean isOpen() {
+    return !readyToStop && !socket.isClosed();
+  }
+
+  /** User-initiated close: like OCSF's closeConnection, reports connectionClosed only. */
+  void close() {
+    flushQuietly(); // e.g. a last line typed just before #quit
+    readyToStop = true;
+    closeSocket();
+    owner.connectionClosed();
+  }
+
+  @Override
+  public void run() {
+    owner.connectionEstablished();
+    try {
+      FrameCodec.Decoder decoder = new FrameCodec.Decoder(compression);
+      byte[] chunk = new byte[READ_CHUNK];
+      int n;
+      while (!readyToStop && (n = input.read(chunk)) >= 0) {
+        ByteBuffer buf = decoder.append(ByteBuffer.wrap(chunk, 0, n));
+        String msg;
+        while (!readyToStop && (msg = decoder.next(buf)) != null) {
+          owner.handleMessageFromServer(msg);
+        }
+        decoder.carry(buf);
+      }
+      if (!readyToStop) throw new IOException("server closed the connection");
+    } catch (Exception exception) {
+      if (!readyToStop) {
+        readyToStop = true;
+        closeSocket();
+        owner.connectionException(exception); // as OCSF's AbstractClient: reported once, not also as a close
+      }
+    }
+  }
+
+  private void closeSocket() {
+    try { socket.close(); } catch (IOException ignore) {}
+  }
+}
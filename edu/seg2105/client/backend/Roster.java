@@ -0,0 +1,47 @@
+package edu.seg2105.client.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import edu.seg2105.client.common.Presence;
+
+/**
+ * The client's own copy of who is online, kept from the server's presence
+ * updates (see Presence), so listing it costs no round trip. Empty, and
+ * not ready, until the first snapshot arrives after each login.
+ */
+public final class Roster {
+  private final TreeSet<String> online = new TreeSet<>(); // guarded by this
+  private boolean ready; // guarded by this
+
+  /** Applies a presence update; false if line is not one. */
+  public synchronized boolean apply(String line) {
+    if (!Presence.isUpdate(line)) return false;
+    String[] entries = Presence.entries(line);
+    if (line.startsWith(Presence.SNAPSHOT)) {
+      online.clear();
+      for (String id : entries) online.add(id);
+      ready = true;
+      return true;
+    }
+    for (String entry : entries) {
+      if (entry.length() < 2) continue;
+      if (entry.charAt(0) == '+') online.add(entry.substring(1));
+      else if (entry.charAt(0) == '-') online.remove(entry.substring(1));
+    }
+    return true;
+  }
+
+  /** Forgets everything: the connection dropped, and a new snapshot will follow the next login. */
+  public synchronized void reset() {
+    online.clear();
+    ready = false;
+  }
+
+  public synchronized boolean isReady() { return ready; }
+
+  public synchronized List<String> online() { return new ArrayList<>(online); }
+
+  public synchronized int size() { return online.size(); }
+}
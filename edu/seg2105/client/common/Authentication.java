@@ -0,0 +1,22 @@
+package edu.seg2105.client.common;
+
+/**
+ * Password login. A client with a password sends "#password <password>"
+ * just before its #login or #resume, in the same burst, and the server
+ * checks it against its credential store before letting the login
+ * through. Sending it as a line of its own, rather than after the login
+ * id, means a server without a credential store refuses it (it comes
+ * before any login) instead of taking the password for part of the id.
+ *
+ * The password crosses the wire as typed: run it over a trusted network
+ * or a tunnel.
+ */
+public final class Authentication {
+  public static final String PASSWORD = "#password";
+
+  private Authentication() {}
+
+  public static String passwordLine(String password) {
+    return PASSWORD + " " + password;
+  }
+}
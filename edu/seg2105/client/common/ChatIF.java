@@ -18,4 +18,11 @@ public interface ChatIF
    * a UI.
    */
   public abstract void display(String message);
+
+  /**
+   * Returns once every message passed to display has been shown; for UIs
+   * that show them later. Called before the client prints or exits on its
+   * own, so nothing comes out of order or is lost.
+   */
+  default void flush() {}
 }
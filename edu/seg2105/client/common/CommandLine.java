@@ -0,0 +1,85 @@
+package edu.seg2105.client.common;
+
+/**
+ * A "#command arg arg ..." line, tokenized by scanning rather than with
+ * split("\\s+"): finding the command name costs one pass over it, and an
+ * argument is only cut out of the line when it is asked for. Arguments
+ * are separated by runs of whitespace (the characters \s matches) and
+ * counted from 0, after the name.
+ */
+public final class CommandLine {
+  private final String text;
+  private final int nameStart;
+  private final int nameEnd;
+  private final int end; // text.length() without trailing whitespace
+
+  private CommandLine(String text, int nameStart, int nameEnd, int end) {
+    this.text = text;
+    this.nameStart = nameStart;
+    this.nameEnd = nameEnd;
+    this.end = end;
+  }
+
+  /** text with its leading whitespace skipped; the name is its first token. */
+  public static CommandLine of(String text) {
+    int end = text.length();
+    while (end > 0 && isSpace(text.charAt(end - 1))) end--;
+    int start = skipSpace(text, 0, end);
+    return new CommandLine(text, start, skipToken(text, start, end), end);
+  }
+
+  public String text() { return text; }
+
+  /** The command as typed, e.g. "#Join"; tables match it ignoring case. */
+  public String name() { return text.substring(nameStart, nameEnd); }
+
+  int nameStart() { return nameStart; }
+
+  int nameEnd() { return nameEnd; }
+
+  /** Argument i, or null if there are not that many. */
+  public String arg(int i) {
+    int start = argStart(i);
+    return (start < 0) ? null : text.substring(start, skipToken(text, start, end));
+  }
+
+  /**
+   * Argument i and everything after it, inner whitespace kept (like the
+   * last element of split("\\s+", i + 2)); null if there is no argument i.
+   */
+  public String rest(int i) {
+    int start = argStart(i);
+    return (start < 0) ? null : text.substring(start, end);
+  }
+
+  public int argCount() {
+    int count = 0;
+    for (int pos = skipSpace(text, nameEnd, end); pos < end; pos = skipSpace(text, skipToken(text, pos, end), end)) {
+      count++;
+    }
+    return count;
+  }
+
+  private int argStart(int i) {
+    int pos = skipSpace(text, nameEnd, end);
+    for (int n = 0; n < i && pos < end; n++) pos = skipSpace(text, skipToken(text, pos, end), end);
+    return (pos < end) ? pos : -1;
+  }
+
+  static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  static int skipSpace(String s, int pos, int end) {
+    while (pos < end && isSpace(s.charAt(pos))) pos++;
+    return pos;
+  }
+
+  static int skipToken(String s, int pos, int end) {
+    while (pos < end && !isSpace(s.charAt(pos))) pos++;
+    return pos;
+  }
+
+  @Override
+  public String toString() { return text; }
+}
@@ -0,0 +1,86 @@
+package edu.seg2105.client.common;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable map from command name ("#join") to handler, matched ignoring
+ * case. Lookup hashes the name where it stands in the line, in an open-
+ * addressed table sized to stay sparse, so it neither allocates nor gets
+ * slower as commands are added; a line that is not a command costs one
+ * character test.
+ */
+public final class CommandTable<H> {
+  private final String[] names; // lower case; null marks a free slot
+  private final Object[] handlers;
+  private final int mask;
+
+  private CommandTable(Map<String, H> entries) {
+    int size = Integer.highestOneBit(Math.max(4, entries.size() * 4) - 1) << 1; // at most 1/4 full
+    names = new String[size];
+    handlers = new Object[size];
+    mask = size - 1;
+    for (Map.Entry<String, H> e : entries.entrySet()) {
+      String name = e.getKey();
+      int i = hash(name, 0, name.length()) & mask;
+      while (names[i] != null) i = (i + 1) & mask;
+      names[i] = name;
+      handlers[i] = e.getValue();
+    }
+  }
+
+  public static <H> Builder<H> builder() {
+    return new Builder<>();
+  }
+
+  public static final class Builder<H> {
+    private final Map<String, H> entries = new LinkedHashMap<>();
+
+    private Builder() {}
+
+    public Builder<H> add(String name, H handler) {
+      if (entries.put(name.toLowerCase(Locale.ROOT), handler) != null) {
+        throw new IllegalArgumentException("duplicate command " + name);
+      }
+      return this;
+    }
+
+    public CommandTable<H> build() {
+      return new CommandTable<>(entries);
+    }
+  }
+
+  /** The handler for the command text starts with, or null (for chat, unknown commands). */
+  public H lookup(String text) {
+    if (text.isEmpty() || text.charAt(0) != '#') return null;
+    return find(text, 0, CommandLine.skipToken(text, 0, text.length()));
+  }
+
+  public H lookup(CommandLine line) {
+    return find(line.text(), line.nameStart(), line.nameEnd());
+  }
+
+  @SuppressWarnings("unchecked")
+  private H find(String text, int start, int end) {
+    int length = end - start;
+    for (int i = hash(text, start, end) & mask; names[i] != null; i = (i + 1) & mask) {
+      String name = names[i];
+      if (name.length() == length && name.regionMatches(true, 0, text, start, length)) {
+        return (H) handlers[i];
+      }
+    }
+    return null;
+  }
+
+  /** String.hashCode of the ASCII-lower-cased region, spread over the low bits. */
+  private static int hash(String s, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+      h = 31 * h + c;
+    }
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,187 @@
+package edu.seg2105.client.common;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The compact chat wire format: one frame per message,
+ *
+ *   [opcode: 1 byte][payload length: varint][payload: UTF-8]
+ *
+ * with no stream header, class descriptors or resets. Connections start
+ * in OCSF's Java serialization; a client asks to switch by sending
+ * UPGRADE_REQUEST, and both sides speak frames once the server echoes it
+ * back. A server that cannot switch answers UPGRADE_DECLINED instead.
+ * The request may go on to offer compression; see FrameCompression for
+ * that and for DEFLATED frames.
+ *
+ * The opcode only classifies the text; decode(encode(s)) is always s.
+ */
+public final class FrameCodec {
+  public static final byte LOGIN = 1;   // payload is the login id
+  public static final byte CHAT = 2;
+  public static final byte NOTICE = 3;  // "SERVER MESSAGE> ..."
+  public static final byte ERROR = 4;   // "ERROR..."
+  public static final byte DEFLATED = 5; // whole frames, compressed; only if negotiated
+
+  public static final String UPGRADE_REQUEST = "#wire frames";
+  public static final String UPGRADE_DECLINED = "#wire serialized";
+
+  public static final int MAX_PAYLOAD = 1 << 20;
+
+  private static final String LOGIN_PREFIX = "#login ";
+  private static final String NOTICE_PREFIX = "SERVER MESSAGE> ";
+  private static final String ERROR_PREFIX = "ERROR";
+
+  private FrameCodec() {}
+
+  /** UPGRADE_REQUEST, alone or followed by compression offers. */
+  public static boolean isUpgradeRequest(Object msg) {
+    if (!(msg instanceof String)) return false;
+    String text = (String) msg;
+    return text.startsWith(UPGRADE_REQUEST)
+        && (text.length() == UPGRADE_REQUEST.length() || text.charAt(UPGRADE_REQUEST.length()) == ' ');
+  }
+
+  public static byte opcodeOf(String text) {
+    if (text.startsWith(LOGIN_PREFIX)) return LOGIN;
+    if (text.startsWith(NOTICE_PREFIX)) return NOTICE;
+    if (text.startsWith(ERROR_PREFIX)) return ERROR;
+    return CHAT;
+  }
+
+  public static byte[] encode(String text) {
+    byte opcode = opcodeOf(text);
+    String body = (opcode == LOGIN) ? text.substring(LOGIN_PREFIX.length()) : text;
+    byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer out = ByteBuffer.allocate(1 + varintSize(payload.length) + payload.length);
+    out.put(opcode);
+    putVarint(out, payload.length);
+    out.put(payload);
+    return out.array();
+  }
+
+  public static String decode(byte opcode, byte[] payload, int offset, int length)
+      throws StreamCorruptedException {
+    String body = new String(payload, offset, length, StandardCharsets.UTF_8);
+    switch (opcode) {
+      case LOGIN:  return LOGIN_PREFIX + body;
+      case CHAT:
+      case NOTICE:
+      case ERROR:  return body;
+      default: throw new StreamCorruptedException("unknown opcode " + opcode);
+    }
+  }
+
+  /** Blocking read of one frame; null on a clean end of stream. */
+  public static String read(DataInputStream in) throws IOException {
+    int opcode = in.read();
+    if (opcode < 0) return null;
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      if (b < 0) throw new EOFException();
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) break;
+      if (shift >= 21) throw new StreamCorruptedException("bad frame length");
+    }
+    if (length > MAX_PAYLOAD) throw new StreamCorruptedException("frame too large: " + length);
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return decode((byte) opcode, payload, 0, length);
+  }
+
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) size++;
+    return size;
+  }
+
+  static void putVarint(ByteBuffer out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  /**
+   * Incremental frame reader for non-blocking and chunked input. Given a
+   * FrameCompression it also takes DEFLATED frames, handing back the frames
+   * inside one at a time before reading on.
+   */
+  public static final class Decoder extends StreamDecoder {
+    private final FrameCompression compression; // null: DEFLATED is refused
+    private ByteBuffer inflated; // rest of the last DEFLATED frame's contents
+
+    public Decoder() {
+      this(null);
+    }
+
+    public Decoder(FrameCompression compression) {
+      super(MAX_PAYLOAD + 8);
+      this.compression = compression;
+    }
+
+    @Override
+    public String next(ByteBuffer in) throws StreamCorruptedException {
+      if (inflated != null) {
+        if (inflated.hasRemaining()) return inner(inflated);
+        inflated = null;
+      }
+      int start = in.position();
+      if (in.remaining() < 2) return null;
+      byte opcode = in.get(start);
+      int length = 0;
+      int pos = start + 1;
+      for (int shift = 0; ; shift += 7) {
+        if (pos >= in.limit()) return null;
+        int b = in.get(pos++) & 0xFF;
+        length |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) break;
+        if (shift >= 21) throw new StreamCorruptedException("bad frame length");
+      }
+      if (length > MAX_PAYLOAD) throw new StreamCorruptedException("frame too large: " + length);
+      if (in.limit() - pos < length) return null;
+
+      byte[] payload;
+      int offset;
+      if (in.hasArray()) {
+        payload = in.array();
+        offset = in.arrayOffset() + pos;
+      } else {
+        payload = new byte[length];
+        offset = 0;
+        in.position(pos);
+        in.get(payload);
+      }
+      in.position(pos + length);
+      if (opcode != DEFLATED) return decode(opcode, payload, offset, length);
+      if (compression == null) throw new StreamCorruptedException("compressed frame not negotiated");
+      inflated = ByteBuffer.wrap(compression.inflate(payload, offset, length));
+      return inner(inflated);
+    }
+
+    /** The next frame of an inflated batch, which must hold whole ordinary frames. */
+    private String inner(ByteBuffer batch) throws StreamCorruptedException {
+      int start = batch.position();
+      byte opcode = batch.get(start);
+      if (opcode == DEFLATED) throw new StreamCorruptedException("nested compressed frame");
+      int length = 0;
+      int pos = start + 1;
+      for (int shift = 0; ; shift += 7) {
+        if (pos >= batch.limit() || shift > 21) throw new StreamCorruptedException("truncated compressed frame");
+        int b = batch.get(pos++) & 0xFF;
+        length |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) break;
+      }
+      if (batch.limit() - pos < length) throw new StreamCorruptedException("truncated compressed frame");
+      batch.position(pos + length);
+      return decode(opcode, batch.array(), pos, length);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package edu.seg2105.client.common;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate for framed connections, negotiated with the upgrade: the client
+ * lists the modes it speaks after the request,
+ *
+ *   #wire frames deflate-chat deflate
+ *
+ * and the server's echo names the one it picked, or none for no
+ * compression. Either side may then send a DEFLATED frame, whose payload
+ * is the uncompressed length (varint) followed by one or more ordinary
+ * frames, raw-deflated. "deflate-chat" primes the compressor with a
+ * dictionary of the server's fixed phrases and stack-trace text, which is
+ * what makes short lines and replay batches shrink.
+ *
+ * Each DEFLATED frame stands alone (the deflater is reset, not flushed,
+ * between frames), so one compressed broadcast can be shared by every
+ * connection using the same mode. One instance belongs to one connection
+ * and keeps its Deflater, Inflater and scratch buffer for its lifetime.
+ */
+public final class FrameCompression {
+  public static final String DEFLATE = "deflate";
+  public static final String DEFLATE_CHAT = "deflate-chat";
+  /** What a client offers, preferred first. */
+  public static final String OFFER = DEFLATE_CHAT + " " + DEFLATE;
+
+  /** Frames shorter than this go out as they are. */
+  public static final int DEFAULT_THRESHOLD = 256;
+  /** Largest inflated DEFLATED payload accepted: a replay batch, not a zip bomb. */
+  public static final int MAX_INFLATED = 16 << 20;
+
+  /**
+   * Most frequent last: deflate reaches back at most 32 KB and codes short
+   * distances cheaper, so the end of the dictionary matters most.
+   */
+  private static final byte[] CHAT_DICTIONARY = String.join("",
+      "java.lang.NullPointerException", "java.lang.IllegalStateException",
+      "java.lang.IllegalArgumentException", "java.io.IOException: ", "Caused by: ",
+      "\tat java.base/java.lang.Thread.run(Thread.java:", "\tat java.base/", "(Unknown Source)",
+      ".java:", "\tat edu.seg2105.", "\tat ", "Exception in thread \"main\" ",
+      "ERROR: Missing or duplicate login. Connection will close.",
+      "ERROR: You must login first. Connection will close.",
+      "Usage: #whisper <loginId> <message>", "You are not in any room. Use #join <room>.",
+      " has left room ", " has joined room ", " (whisper to ", " (whisper)> ",
+      "SERVER MESSAGE> ", " has logged on.", " has disconnected.", "#seq ",
+      "the and you that for are with this have what but not was can will just ",
+      "> ").getBytes(StandardCharsets.UTF_8);
+
+  private final String mode;
+  private final byte[] dictionary; // null: plain deflate
+  private final int threshold;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final Inflater inflater = new Inflater(true);
+  private byte[] scratch = new byte[0];
+
+  private FrameCompression(String mode, byte[] dictionary, int threshold) {
+    this.mode = mode;
+    this.dictionary = dictionary;
+    this.threshold = Math.max(1, threshold);
+  }
+
+  /** Compression for mode ("deflate" or "deflate-chat"); null if it is none of ours. */
+  public static FrameCompression forMode(String mode, int threshold) {
+    if (DEFLATE_CHAT.equals(mode)) return new FrameCompression(mode, CHAT_DICTIONARY, threshold);
+    if (DEFLATE.equals(mode)) return new FrameCompression(mode, null, threshold);
+    return null;
+  }
+
+  /** The server side: the first mode offered in an upgrade request that we speak, or null. */
+  public static FrameCompression accept(String upgradeRequest, int threshold) {
+    CommandLine request = CommandLine.of(upgradeRequest);
+    for (int i = 1; i < request.argCount(); i++) { // arg 0 is "frames"
+      FrameCompression compression = forMode(request.arg(i), threshold);
+      if (compression != null) return compression;
+    }
+    return null;
+  }
+
+  public String mode() { return mode; }
+
+  public boolean worthCompressing(int length) { return length >= threshold; }
+
+  /**
+   * frames (one or more whole frames) as a DEFLATED frame, or frames itself
+   * if they are under the threshold or would not get smaller.
+   */
+  public synchronized byte[] compress(byte[] frames) {
+    if (!worthCompressing(frames.length)) return frames;
+    deflater.reset();
+    if (dictionary != null) deflater.setDictionary(dictionary);
+    deflater.setInput(frames);
+    deflater.finish();
+    if (scratch.length < frames.length) scratch = new byte[frames.length];
+    int n = 0;
+    while (!deflater.finished()) {
+      if (n == frames.length) return frames; // no smaller than what it replaces
+      n += deflater.deflate(scratch, n, frames.length - n);
+    }
+    int payload = FrameCodec.varintSize(frames.length) + n;
+    int total = 1 + FrameCodec.varintSize(payload) + payload;
+    if (total >= frames.length || payload > FrameCodec.MAX_PAYLOAD) return frames;
+
+    ByteBuffer out = ByteBuffer.allocate(total);
+    out.put(FrameCodec.DEFLATED);
+    FrameCodec.putVarint(out, payload);
+    FrameCodec.putVarint(out, frames.length);
+    out.put(scratch, 0, n);
+    return out.array();
+  }
+
+  /**
+   * The frames inside a DEFLATED frame's payload. The claimed length is
+   * the peer's word, so it is only a ceiling: the buffer starts at a few
+   * times the compressed size and grows as output actually comes.
+   */
+  public synchronized byte[] inflate(byte[] payload, int offset, int length)
+      throws StreamCorruptedException {
+    int end = offset + length;
+    int rawLength = 0;
+    int pos = offset;
+    for (int shift = 0; ; shift += 7) {
+      if (pos >= end || shift > 28) throw new StreamCorruptedException("bad compressed length");
+      int b = payload[pos++] & 0xFF;
+      rawLength |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) break;
+    }
+    if (rawLength <= 0 || rawLength > MAX_INFLATED) {
+      throw new StreamCorruptedException("compressed frame too large: " + rawLength);
+    }
+    inflater.reset();
+    if (dictionary != null) inflater.setDictionary(dictionary);
+    inflater.setInput(payload, pos, end - pos);
+    byte[] raw = new byte[(int) Math.min(rawLength, Math.max(256L, 4L * (end - pos)))];
+    int n = 0;
+    try {
+      while (n < rawLength) {
+        if (n == raw.length) raw = Arrays.copyOf(raw, (int) Math.min(rawLength, 2L * raw.length));
+        int k = inflater.inflate(raw, n, raw.length - n);
+        if (k == 0 && (inflater.finished() || inflater.needsInput())) break;
+        n += k;
+      }
+    } catch (DataFormatException e) {
+      throw new StreamCorruptedException("bad compressed frame: " + e.getMessage());
+    }
+    if (n != rawLength) throw new StreamCorruptedException("truncated compressed frame");
+    return raw;
+  }
+}
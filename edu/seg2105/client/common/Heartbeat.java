@@ -0,0 +1,20 @@
+package edu.seg2105.client.common;
+
+/**
+ * Application-level keepalive. A client that heartbeats sends PING every
+ * interval and the server answers PONG, so each side hears from the other
+ * at least that often even when nobody is talking. The server closes a
+ * client that has pinged once and then goes quiet for its heartbeat
+ * timeout; the client gives up on a server it has not heard from in
+ * MISSES intervals. Clients that never ping are never sent a PONG.
+ */
+public final class Heartbeat {
+  public static final String PING = "#ping";
+  public static final String PONG = "#pong";
+
+  public static final long DEFAULT_INTERVAL_MILLIS = 15_000;
+  /** Intervals of silence after which the other side counts as gone. */
+  public static final int MISSES = 3;
+
+  private Heartbeat() {}
+}
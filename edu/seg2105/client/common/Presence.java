@@ -0,0 +1,62 @@
+package edu.seg2105.client.common;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Who is online. "#who" asks the server once, for a line a person reads.
+ * A client that keeps a roster sends "#presence on" after logging in; the
+ * server then sends it, as tab-separated lines meant for the client and
+ * not for display:
+ *
+ *   SNAPSHOT  "#roster" then every login id online: replaces the roster
+ *   DELTA     "#presence" then "+id" or "-id" per change since the last
+ *
+ * Deltas are coalesced: at most one per interval, listing each id that
+ * changed once, and not at all if it changed back. Applying one twice,
+ * or after a snapshot that already has it, changes nothing.
+ *
+ * Users cannot forge these: the server refuses login ids that start with
+ * '#' or hold whitespace, so every line a user can cause starts with an id
+ * or "[room]" and carries "> ", while an update holds no space at all.
+ */
+public final class Presence {
+  public static final String WHO = "#who";
+  public static final String SUBSCRIBE = "#presence";
+  public static final String SNAPSHOT = "#roster";
+  public static final String DELTA = "#presence";
+
+  private static final char SEP = '\t';
+
+  private Presence() {}
+
+  public static String snapshot(Collection<String> loginIds) {
+    StringBuilder sb = new StringBuilder(SNAPSHOT);
+    for (String id : loginIds) {
+      if (id.indexOf(SEP) < 0) sb.append(SEP).append(id);
+    }
+    return sb.toString();
+  }
+
+  /** changes: login id to true if it came online, false if it went offline. */
+  public static String delta(Map<String, Boolean> changes) {
+    StringBuilder sb = new StringBuilder(DELTA);
+    for (Map.Entry<String, Boolean> e : changes.entrySet()) {
+      if (e.getKey().indexOf(SEP) < 0) sb.append(SEP).append(e.getValue() ? '+' : '-').append(e.getKey());
+    }
+    return sb.toString();
+  }
+
+  /** True for a SNAPSHOT or DELTA line; never for a chat line, which has a space. */
+  public static boolean isUpdate(String line) {
+    if (line.indexOf(' ') >= 0) return false;
+    return (line.startsWith(SNAPSHOT) && (line.length() == SNAPSHOT.length() || line.charAt(SNAPSHOT.length()) == SEP))
+        || (line.startsWith(DELTA) && (line.length() == DELTA.length() || line.charAt(DELTA.length()) == SEP));
+  }
+
+  /** The fields of an update after its first: ids (SNAPSHOT) or +id/-id (DELTA). */
+  public static String[] entries(String line) {
+    int first = line.indexOf(SEP);
+    return (first < 0) ? new String[0] : line.substring(first + 1).split(String.valueOf(SEP));
+  }
+}
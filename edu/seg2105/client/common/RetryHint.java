@@ -0,0 +1,29 @@
+package edu.seg2105.client.common;
+
+/**
+ * The server's answer to a login it is too busy to take: an ERROR line
+ * naming how long to wait, after which the server closes the connection.
+ * Clients that understand it come back after that long plus some jitter,
+ * so a crowd turned away together does not all return together; older
+ * clients just show it and treat the close as the server going away.
+ */
+public final class RetryHint {
+  private static final String PREFIX = "ERROR: Server busy. Retry after ";
+  private static final String SUFFIX = " ms.";
+
+  private RetryHint() {}
+
+  public static String notice(long retryAfterMillis) {
+    return PREFIX + retryAfterMillis + SUFFIX;
+  }
+
+  /** The wait a notice asks for; -1 if line is not one. */
+  public static long millisOf(String line) {
+    if (!line.startsWith(PREFIX) || !line.endsWith(SUFFIX)) return -1;
+    try {
+      return Math.max(0, Long.parseLong(line.substring(PREFIX.length(), line.length() - SUFFIX.length())));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package edu.seg2105.client.common;
+
+/**
+ * Sequence numbers on relayed lines, for clients that resume. A client
+ * that logs in with "#resume <loginId> <lastSeq>" gets every room and
+ * whisper line as
+ *
+ *   #seq <n> <line>
+ *
+ * and after a drop sends the highest n it saw, so the server replays only
+ * what it missed. Other clients never see the tag.
+ */
+public final class SequenceTag {
+  public static final String RESUME = "#resume";
+
+  private static final String PREFIX = "#seq ";
+
+  private SequenceTag() {}
+
+  public static String tag(long seq, String text) {
+    return PREFIX + seq + " " + text;
+  }
+
+  /** The tag's number, or -1 if line carries none. */
+  public static long seqOf(String line) {
+    if (!line.startsWith(PREFIX)) return -1;
+    int end = line.indexOf(' ', PREFIX.length());
+    if (end < 0) return -1;
+    try {
+      return Long.parseLong(line.substring(PREFIX.length(), end));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /** line without its tag; unchanged if it has none. */
+  public static String textOf(String line) {
+    return (seqOf(line) < 0) ? line : line.substring(line.indexOf(' ', PREFIX.length()) + 1);
+  }
+}
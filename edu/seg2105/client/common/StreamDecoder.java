@@ -0,0 +1,40 @@
+package edu.seg2105.client.common;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental message reader for one connection's byte stream. next()
+ * returns null until a whole message is buffered and never consumes a
+ * partial one; carry() keeps the unread remainder and append() prefixes
+ * it to the next chunk read from the socket.
+ */
+public abstract class StreamDecoder {
+  private final int maxPending;
+  private ByteBuffer pending;
+
+  protected StreamDecoder(int maxPending) {
+    this.maxPending = maxPending;
+  }
+
+  /** Next complete message in in, or null if more bytes are needed. */
+  public abstract String next(ByteBuffer in) throws IOException;
+
+  /** The bytes to decode next: anything carried over, followed by chunk. */
+  public ByteBuffer append(ByteBuffer chunk) throws StreamCorruptedException {
+    if (pending == null) return chunk;
+    if (pending.remaining() + chunk.remaining() > maxPending) {
+      throw new StreamCorruptedException("message too large");
+    }
+    ByteBuffer joined = ByteBuffer.allocate(pending.remaining() + chunk.remaining());
+    joined.put(pending).put(chunk).flip();
+    pending = null;
+    return joined;
+  }
+
+  /** Keeps what next() left unread in in (the caller's buffer is reused). */
+  public void carry(ByteBuffer in) {
+    pending = in.hasRemaining() ? ByteBuffer.allocate(in.remaining()).put(in).flip() : null;
+  }
+}
@@ -0,0 +1,36 @@
+package edu.seg2105.client.common;
+
+/**
+ * How long a writer may hold messages back so they leave in one write, and
+ * how many bytes it may hold before writing anyway. A window of 0 never
+ * waits: whatever is already queued still goes out together, but nothing
+ * is delayed for company. Sockets that batch this way run with
+ * TCP_NODELAY, so the window is the only delay.
+ */
+public final class WriteBatching {
+  public static final int DEFAULT_BYTE_BUDGET = 16 * 1024;
+
+  /** Write as soon as possible. */
+  public static final WriteBatching IMMEDIATE = new WriteBatching(0, DEFAULT_BYTE_BUDGET);
+
+  private final long windowMillis;
+  private final int byteBudget;
+
+  public WriteBatching(long windowMillis, int byteBudget) {
+    this.windowMillis = Math.max(0, windowMillis);
+    this.byteBudget = Math.max(1, byteBudget);
+  }
+
+  public long windowMillis() { return windowMillis; }
+
+  public long windowNanos() { return windowMillis * 1_000_000L; }
+
+  public int byteBudget() { return byteBudget; }
+
+  public boolean isImmediate() { return windowMillis == 0; }
+
+  @Override
+  public String toString() {
+    return "flush window " + windowMillis + " ms, byte budget " + byteBudget;
+  }
+}
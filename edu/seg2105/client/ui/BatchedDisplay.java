@@ -0,0 +1,82 @@
+package edu.seg2105.client.ui;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+
+import edu.seg2105.client.common.ChatIF;
+
+/**
+ * A ChatIF that never makes its caller wait for the terminal. display()
+ * only queues the line; a render thread writes whatever has queued up at
+ * most once per tick, as one print. The queue is bounded: when a busy room
+ * outruns the terminal, the oldest lines are dropped and a "N messages
+ * skipped." line stands in for them, so the socket reader behind display()
+ * always keeps going.
+ */
+public final class BatchedDisplay implements ChatIF {
+  public static final int DEFAULT_BACKLOG = 10_000;
+  public static final long DEFAULT_TICK_MILLIS = 16;
+
+  private final PrintStream out;
+  private final int backlog;
+  private final long tickMillis;
+  private final Object renderLock = new Object(); // one writer at a time, in queue order
+  private ArrayDeque<String> queued = new ArrayDeque<>(); // guarded by this
+  private ArrayDeque<String> rendering = new ArrayDeque<>(); // guarded by renderLock
+  private long skipped; // guarded by this
+
+  public BatchedDisplay(PrintStream out, int backlog, long tickMillis) {
+    this.out = out;
+    this.backlog = Math.max(1, backlog);
+    this.tickMillis = Math.max(1, tickMillis);
+    Thread render = new Thread(this::renderLoop, "chat-render");
+    render.setDaemon(true);
+    render.start();
+  }
+
+  @Override
+  public synchronized void display(String message) {
+    if (queued.size() >= backlog) {
+      queued.pollFirst();
+      skipped++;
+    }
+    queued.addLast(message);
+    if (queued.size() == 1) notifyAll();
+  }
+
+  /** Writes what is queued now, on the caller's thread. */
+  @Override
+  public void flush() {
+    synchronized (renderLock) {
+      long lost;
+      synchronized (this) {
+        ArrayDeque<String> swap = rendering;
+        rendering = queued;
+        queued = swap;
+        lost = skipped;
+        skipped = 0;
+      }
+      if (rendering.isEmpty() && lost == 0) return;
+      StringBuilder frame = new StringBuilder();
+      String nl = System.lineSeparator();
+      if (lost > 0) frame.append(lost).append(" messages skipped.").append(nl);
+      for (String line; (line = rendering.pollFirst()) != null; ) frame.append(line).append(nl);
+      out.print(frame);
+      out.flush();
+    }
+  }
+
+  private void renderLoop() {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (queued.isEmpty() && skipped == 0) wait();
+        }
+        flush();
+        Thread.sleep(tickMillis); // let the next frame fill up
+      }
+    } catch (InterruptedException e) {
+      flush();
+    }
+  }
+}
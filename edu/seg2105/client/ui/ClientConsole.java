@@ -1,10 +1,23 @@
 package edu.seg2105.client.ui;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 import edu.seg2105.client.backend.ChatClient;
+import edu.seg2105.client.backend.Roster;
 import edu.seg2105.client.common.ChatIF;
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandTable;
+import edu.seg2105.client.common.Heartbeat;
+import edu.seg2105.client.common.Presence;
+import edu.seg2105.client.common.WriteBatching;
 
 
 public class ClientConsole implements ChatIF {
@@ -13,8 +26,39 @@ public class ClientConsole implements ChatIF {
   private BufferedReader fromConsole;
 
   public ClientConsole(String loginId, String host, int port) {
+    this(loginId, host, port, false);
+  }
+
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames) {
+    this(loginId, host, port, preferFrames, WriteBatching.IMMEDIATE);
+  }
+
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames,
+      WriteBatching batching) {
+    this(loginId, host, port, preferFrames, batching, false);
+  }
+
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames,
+      WriteBatching batching, boolean resumable) {
+    this(loginId, host, port, preferFrames, batching, resumable, false);
+  }
+
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames,
+      WriteBatching batching, boolean resumable, boolean compress) {
+    this(loginId, host, port, preferFrames, batching, resumable, compress, null);
+  }
+
+  /** display shows what the server sends; null prints each line as it arrives. */
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames,
+      WriteBatching batching, boolean resumable, boolean compress, ChatIF display) {
+    this(loginId, host, port, preferFrames, batching, resumable, compress, display, null);
+  }
+
+  public ClientConsole(String loginId, String host, int port, boolean preferFrames,
+      WriteBatching batching, boolean resumable, boolean compress, ChatIF display, String password) {
     try {
-      client = new ChatClient(loginId, host, port, this);
+      client = new ChatClient(loginId, host, port, (display != null) ? display : this,
+          preferFrames, batching, resumable, compress, password);
     } catch (Exception e) {
       // Must match expected wording exactly:
       System.out.println("ERROR - Can't setup connection! Terminating client.");
@@ -47,46 +91,116 @@ public class ClientConsole implements ChatIF {
     }
   }
 
+  /** Commands the console handles itself; others are sent to the server as typed. */
+  private final CommandTable<Consumer<CommandLine>> commands = CommandTable.<Consumer<CommandLine>>builder()
+      // rooms and routing live on the server
+      .add("#join", this::forward)
+      .add("#leave", this::forward)
+      .add("#whisper", this::forward)
+      .add(Presence.WHO, this::who)
+      .add("#quit", line -> client.quit())
+      .add("#logoff", line -> client.logoff())
+      .add("#login", line -> login())
+      .add("#gethost", line -> System.out.println("Current host: " + client.getHost()))
+      .add("#getport", line -> System.out.println("Current port: " + client.getPort()))
+      .build();
+
   /** Handle commands beginning with '#' */
   private void handleCommand(String cmd) {
-    switch (cmd.toLowerCase()) {
-      case "#quit":
-        client.quit();
-        break;
-
-      case "#logoff":
-        client.logoff();
-        break;
-
-      case "#login":
-        if (client.isConnectedNow()) {
-          System.out.println("Already connected.");
-        } else {
-          try {
-            client.openConnection();
-          } catch (Exception e) {
-            System.out.println("Cannot connect to server.");
-          }
-        }
-        break;
+    String trimmed = cmd.trim();
+    Consumer<CommandLine> command = commands.lookup(trimmed);
+    if (command == null) System.out.println("Unknown command: " + cmd);
+    else command.accept(CommandLine.of(trimmed));
+  }
 
-      case "#gethost":
-        System.out.println("Current host: " + client.getHost());
-        break;
+  private void forward(CommandLine line) {
+    client.handleMessageFromClientUI(line.text());
+  }
 
-      case "#getport":
-        System.out.println("Current port: " + client.getPort());
-        break;
+  /** From the local roster when there is one, else asks the server. */
+  private void who(CommandLine line) {
+    Roster roster = client.roster();
+    if (roster == null || !roster.isReady()) {
+      forward(line);
+      return;
+    }
+    List<String> online = roster.online();
+    System.out.println("Online (" + online.size() + "): " + String.join(", ", online));
+  }
 
-      default:
-        System.out.println("Unknown command: " + cmd);
+  private void login() {
+    if (client.isConnectedNow()) {
+      System.out.println("Already connected.");
+    } else {
+      try {
+        client.connect();
+      } catch (Exception e) {
+        System.out.println("Cannot connect to server.");
+      }
     }
   }
 
+  private static String readPassword(String file) throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    if (lines.isEmpty()) throw new IOException(file + " is empty");
+    return lines.get(0);
+  }
+
   // ---------- Entry point (needed by your test runner) ----------
+  /**
+   * Usage: ClientConsole loginId [host] [port] [--wire=frames|serialized]
+   *                      [--flush-window=MS] [--flush-bytes=N] [--resume] [--compress]
+   *                      [--display=direct|batched] [--display-backlog=N] [--heartbeat=SEC]
+   *                      [--password=PASSWORD | --password-file=FILE] [--roster=on|off]
+   * The flush options batch outgoing lines; they apply to the framed wire only.
+   * --resume reconnects after a drop and gets back the lines missed meanwhile.
+   * --compress asks for the framed wire with compression of long lines and replays.
+   * --display=batched prints server lines from a render thread, a frame at a
+   * time, so a slow terminal does not hold up reading; past --display-backlog
+   * waiting lines it skips the oldest and says how many.
+   * --heartbeat pings the server every SEC seconds (default 15, 0 for never)
+   * and gives up on a server that stops answering.
+   * --password logs in with a password, for servers started with
+   * --credentials; --password-file reads it from the first line of FILE
+   * instead, keeping it out of the process list.
+   * --roster (on by default) keeps a local list of who is online from the
+   * server's batched presence updates, so #who answers without asking.
+   */
   public static void main(String[] args) {
+    boolean preferFrames = false;
+    long flushWindow = 0;
+    int flushBytes = WriteBatching.DEFAULT_BYTE_BUDGET;
+    boolean resumable = false;
+    boolean compress = false;
+    boolean batchedDisplay = false;
+    int displayBacklog = BatchedDisplay.DEFAULT_BACKLOG;
+    long heartbeatMillis = Heartbeat.DEFAULT_INTERVAL_MILLIS;
+    String password = null;
+    boolean roster = true;
+    List<String> positional = new ArrayList<>();
+    for (String arg : (args == null) ? new String[0] : args) {
+      try {
+        if (arg.startsWith("--wire=")) preferFrames = arg.substring(7).equalsIgnoreCase("frames");
+        else if (arg.startsWith("--flush-window=")) flushWindow = Long.parseLong(arg.substring(15));
+        else if (arg.startsWith("--flush-bytes=")) flushBytes = Integer.parseInt(arg.substring(14));
+        else if (arg.equals("--resume")) resumable = true;
+        else if (arg.equals("--compress")) compress = true;
+        else if (arg.startsWith("--display=")) batchedDisplay = arg.substring(10).equalsIgnoreCase("batched");
+        else if (arg.startsWith("--display-backlog=")) displayBacklog = Integer.parseInt(arg.substring(18));
+        else if (arg.startsWith("--heartbeat=")) heartbeatMillis = (long) (Double.parseDouble(arg.substring(12)) * 1000);
+        else if (arg.startsWith("--password=")) password = arg.substring(11);
+        else if (arg.startsWith("--password-file=")) password = readPassword(arg.substring(16));
+        else if (arg.startsWith("--roster=")) roster = !arg.substring(9).equalsIgnoreCase("off");
+        else if (arg.startsWith("--")) System.out.println("Ignoring unknown option: " + arg);
+        else positional.add(arg);
+      } catch (NumberFormatException | IOException bad) {
+        System.out.println("Ignoring bad option: " + arg);
+      }
+    }
+    args = positional.toArray(new String[0]);
+
     // args[0] must be loginId
-    if (args == null || args.length < 1) {
+    if (args.length < 1) {
       // Must match expected wording exactly:
       System.out.println("ERROR - No login ID specified.  Connection aborted.");
       System.exit(1);
@@ -103,7 +217,12 @@ public class ClientConsole implements ChatIF {
       }
     }
 
-    ClientConsole console = new ClientConsole(loginId, host, port);
+    ClientConsole console = new ClientConsole(loginId, host, port, preferFrames,
+        new WriteBatching(flushWindow, flushBytes), resumable, compress,
+        batchedDisplay ? new BatchedDisplay(System.out, displayBacklog, BatchedDisplay.DEFAULT_TICK_MILLIS) : null,
+        password);
+    console.client.setHeartbeat(heartbeatMillis);
+    console.client.keepRoster(roster);
     console.accept();
   }
 }
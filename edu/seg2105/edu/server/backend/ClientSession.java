@@ -0,0 +1,82 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One connected chat client, independent of the engine that carries its
+ * bytes. Mirrors the part of OCSF's ConnectionToClient that EchoServer
+ * uses, so the login and echo logic read the same whichever engine runs.
+ */
+public interface ClientSession {
+
+  /** Per-connection attribute, e.g. "loginId". */
+  Object getInfo(String infoType);
+
+  void setInfo(String infoType, Object info);
+
+  void sendToClient(Object msg) throws IOException;
+
+  /**
+   * Sends a message that may be shared with other recipients. Engines that
+   * own their sockets write its pre-encoded bytes; the default just sends
+   * the text, which is all an OCSF connection can do.
+   */
+  default void send(OutboundMessage msg) throws IOException {
+    sendToClient(msg.text());
+  }
+
+  /**
+   * Sends msgs in order. Engines that own their sockets queue them as one
+   * buffer, so they leave in a single write.
+   */
+  default void sendAll(List<OutboundMessage> msgs) throws IOException {
+    for (OutboundMessage msg : msgs) send(msg);
+  }
+
+  /**
+   * Rate limiting's DELAY: msg is to be handled after delayMillis, and
+   * nothing more read from this client until then. Returns true once the
+   * wait is over, for the caller to handle msg itself. The default sleeps
+   * the calling thread, which in thread-per-client engines is this
+   * client's own reader, so its socket simply stops being read.
+   */
+  default boolean delay(Object msg, long delayMillis) {
+    try {
+      Thread.sleep(delayMillis);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt(); // shutting down: the message goes nowhere
+      return false;
+    }
+  }
+
+  /**
+   * Like delay, but until done completes rather than for a fixed time (a
+   * password check): nothing more from this client is handled before msg.
+   * Returns true once done has completed, for the caller to handle msg
+   * itself; false if the session will hand msg back through handleDelayed.
+   * The default blocks the calling thread, this client's own reader.
+   */
+  default boolean await(Object msg, CompletableFuture<?> done) {
+    try {
+      done.join();
+    } catch (RuntimeException e) {
+      // the caller looks at how done completed
+    }
+    return true;
+  }
+
+  /** Messages waiting in this client's outbound queue. */
+  default int queuedMessages() { return 0; }
+
+  /** Closes the connection; the engine then fires clientDisconnected. */
+  void close() throws IOException;
+
+  /**
+   * Closes the connection without waiting for queued output to be written,
+   * for a peer that is gone; clientDisconnected still fires.
+   */
+  default void abort() throws IOException { close(); }
+}
@@ -0,0 +1,322 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.seg2105.client.common.FrameCodec;
+
+/**
+ * Joins this server to other nodes over TCP, so that what a client says
+ * on one node reaches the clients of every node. A room line or a whisper
+ * for someone not logged on here goes to each peer once; a node that
+ * receives one fans it out to its own clients and passes it on to its
+ * other peers, so any connected arrangement of nodes works, not only a
+ * full mesh. Every line carries an id (origin node, the origin's start
+ * time, a counter) and a node handles each id once, which is what stops
+ * lines going round in loops.
+ *
+ * A link is one TCP connection, used both ways; either end may dial.
+ * Dialled peers are re-dialled, backing off up to five seconds, for as
+ * long as the relay runs. Each link writes from a bounded queue on its
+ * own thread, so a slow peer holds up nothing else: when its queue is
+ * full, lines for it are dropped and counted.
+ *
+ * Lines are not stored for peers that are down, and login ids are only
+ * unique per node.
+ */
+public final class ClusterRelay {
+  static final byte ROOM = 1;     // scope is the room
+  static final byte WHISPER = 2;  // scope is the login id it is for
+
+  private static final String HELLO = "simplechat-peer/1";
+  private static final int SEEN_WINDOW = 1 << 16; // ids remembered, per node
+  private static final int LINK_QUEUE = 10_000;
+  private static final long REDIAL_FIRST_MILLIS = 250;
+  private static final long REDIAL_MAX_MILLIS = 5_000;
+
+  /** One relayed line, as it travels between nodes. */
+  private static final class Relayed {
+    static final Relayed CLOSE = new Relayed((byte) 0, "", 0, 0, "", "", "");
+
+    final byte kind;
+    final String origin;
+    final long epoch;
+    final long n;
+    final String sender;
+    final String scope;
+    final String text;
+
+    Relayed(byte kind, String origin, long epoch, long n, String sender, String scope, String text) {
+      this.kind = kind;
+      this.origin = origin;
+      this.epoch = epoch;
+      this.n = n;
+      this.sender = sender;
+      this.scope = scope;
+      this.text = text;
+    }
+
+    String id() { return origin + '/' + epoch + '/' + n; }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeByte(kind);
+      out.writeUTF(origin);
+      out.writeLong(epoch);
+      out.writeLong(n);
+      out.writeUTF(sender);
+      out.writeUTF(scope);
+      byte[] body = text.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(body.length);
+      out.write(body);
+    }
+
+    static Relayed readFrom(DataInputStream in) throws IOException {
+      byte kind = in.readByte();
+      if (kind != ROOM && kind != WHISPER) throw new StreamCorruptedException("unknown relay kind " + kind);
+      String origin = in.readUTF();
+      long epoch = in.readLong();
+      long n = in.readLong();
+      String sender = in.readUTF();
+      String scope = in.readUTF();
+      int length = in.readInt();
+      if (length < 0 || length > FrameCodec.MAX_PAYLOAD) {
+        throw new StreamCorruptedException("relayed line too large: " + length);
+      }
+      byte[] body = new byte[length];
+      in.readFully(body);
+      return new Relayed(kind, origin, epoch, n, sender, scope, new String(body, StandardCharsets.UTF_8));
+    }
+  }
+
+  /** A connection to one peer node. */
+  private final class Link {
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+    final BlockingQueue<Relayed> queue = new ArrayBlockingQueue<>(LINK_QUEUE);
+    final AtomicBoolean closed = new AtomicBoolean();
+    String peer; // its node id, once it has said hello
+
+    Link(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true); // the writer flushes once per queue drain
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    void send(Relayed msg) {
+      if (!queue.offer(msg)) dropped.increment();
+    }
+
+    void writeLoop() {
+      try {
+        while (true) {
+          Relayed msg = queue.take();
+          do {
+            if (msg == Relayed.CLOSE) return;
+            msg.writeTo(out);
+            sent.increment();
+          } while ((msg = queue.poll()) != null);
+          out.flush();
+        }
+      } catch (IOException | InterruptedException e) {
+        close();
+      }
+    }
+
+    void close() {
+      if (!closed.compareAndSet(false, true)) return;
+      queue.clear();
+      queue.offer(Relayed.CLOSE);
+      try { socket.close(); } catch (IOException ignore) {}
+    }
+
+    @Override
+    public String toString() {
+      InetSocketAddress remote = (InetSocketAddress) socket.getRemoteSocketAddress();
+      return peer + " (" + remote.getHostString() + ":" + remote.getPort() + ")";
+    }
+  }
+
+  private final EchoServer server;
+  private final String nodeId;
+  private final long epoch = System.currentTimeMillis(); // tells this run's ids from a restarted node's
+  private final AtomicLong nextId = new AtomicLong();
+  private final Set<Link> links = ConcurrentHashMap.newKeySet();
+  private final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > SEEN_WINDOW;
+    }
+  };
+  private final Executor threads = VirtualThreads.blockingExecutor("cluster-");
+  private final List<String> dialled = new ArrayList<>();
+  private volatile ServerSocket listener;
+  private volatile boolean closed;
+
+  final LongAdder published = new LongAdder();
+  final LongAdder received = new LongAdder();
+  final LongAdder sent = new LongAdder();
+  final LongAdder duplicates = new LongAdder();
+  final LongAdder dropped = new LongAdder();
+
+  public ClusterRelay(EchoServer server, String nodeId) {
+    this.server = server;
+    this.nodeId = nodeId;
+  }
+
+  public String nodeId() { return nodeId; }
+
+  /** Accepts peers on port from now on. */
+  public void listen(int port) throws IOException {
+    ServerSocket socket = new ServerSocket(port);
+    listener = socket;
+    threads.execute(() -> {
+      while (!closed) {
+        try {
+          Socket peer = socket.accept();
+          threads.execute(() -> run(peer));
+        } catch (IOException e) {
+          if (!closed) ServerLog.warn("Cluster listener stopped: " + e.getMessage());
+          return;
+        }
+      }
+    });
+    ServerLog.info("Cluster node " + nodeId + " listening for peers on port " + port);
+  }
+
+  /** Keeps a link to the node whose cluster port is host:port, re-dialling whenever it drops. */
+  public void connect(String host, int port) {
+    synchronized (dialled) {
+      dialled.add(host + ":" + port);
+    }
+    threads.execute(() -> {
+      long delay = REDIAL_FIRST_MILLIS;
+      while (!closed) {
+        Socket socket = null;
+        try {
+          socket = new Socket(host, port);
+        } catch (IOException e) {
+          ServerLog.debug("Peer " + host + ":" + port + " unreachable: " + e.getMessage());
+        }
+        if (socket != null && run(socket)) delay = REDIAL_FIRST_MILLIS;
+        if (closed) return;
+        try { Thread.sleep(delay); } catch (InterruptedException e) { return; }
+        delay = Math.min(delay * 2, REDIAL_MAX_MILLIS);
+      }
+    });
+  }
+
+  /** Serves one link until it drops; true if the peer got as far as saying hello. */
+  private boolean run(Socket socket) {
+    Link link;
+    try {
+      link = new Link(socket);
+    } catch (IOException e) {
+      try { socket.close(); } catch (IOException ignore) {}
+      return false;
+    }
+    try {
+      link.out.writeUTF(HELLO);
+      link.out.writeUTF(nodeId);
+      link.out.flush();
+      if (!HELLO.equals(link.in.readUTF())) throw new StreamCorruptedException("not a chat server peer");
+      link.peer = link.in.readUTF();
+      if (link.peer.equals(nodeId)) throw new StreamCorruptedException("peer has this node's id");
+    } catch (IOException e) {
+      ServerLog.warn("Peer link to " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+      link.close();
+      return false;
+    }
+
+    links.add(link);
+    threads.execute(link::writeLoop);
+    ServerLog.info("Peer " + link + " connected.");
+    try {
+      while (!closed) onReceived(Relayed.readFrom(link.in), link);
+    } catch (EOFException e) {
+      // peer went away
+    } catch (IOException e) {
+      if (!link.closed.get()) ServerLog.warn("Peer " + link + " failed: " + e.getMessage());
+    } catch (RuntimeException e) {
+      ServerLog.warn("Peer " + link + " failed: " + e);
+    } finally {
+      links.remove(link);
+      link.close();
+    }
+    if (!closed) ServerLog.info("Peer " + link + " disconnected.");
+    return true;
+  }
+
+  /** True the first time id comes by, from anywhere. */
+  private boolean firstSight(String id) {
+    synchronized (seen) {
+      return seen.put(id, Boolean.TRUE) == null;
+    }
+  }
+
+  private void onReceived(Relayed msg, Link from) {
+    if (msg.origin.equals(nodeId) || !firstSight(msg.id())) {
+      duplicates.increment();
+      return;
+    }
+    received.increment();
+    server.deliverFromPeer(msg.kind, msg.sender, msg.scope, msg.text);
+    for (Link link : links) {
+      if (link != from) link.send(msg);
+    }
+  }
+
+  /** Sends a line said on this node to every peer. */
+  void publish(byte kind, String sender, String scope, String text) {
+    Relayed msg = new Relayed(kind, nodeId, epoch, nextId.incrementAndGet(), sender, scope, text);
+    published.increment();
+    for (Link link : links) link.send(msg);
+  }
+
+  boolean hasPeers() { return !links.isEmpty(); }
+
+  public void close() {
+    closed = true;
+    ServerSocket socket = listener;
+    if (socket != null) {
+      try { socket.close(); } catch (IOException ignore) {}
+    }
+    for (Link link : links) link.close();
+  }
+
+  /** One line for the #peers console command, then one per link. */
+  public String report() {
+    StringBuilder sb = new StringBuilder("Cluster node ").append(nodeId).append(": ")
+        .append(links.size()).append(" peers connected; ")
+        .append(published.sum()).append(" published, ").append(received.sum()).append(" received, ")
+        .append(sent.sum()).append(" sent, ").append(duplicates.sum()).append(" duplicates, ")
+        .append(dropped.sum()).append(" dropped");
+    synchronized (dialled) {
+      if (!dialled.isEmpty()) sb.append("\nDialling: ").append(String.join(", ", dialled));
+    }
+    for (Link link : links) sb.append("\nPeer ").append(link).append(": ").append(link.queue.size()).append(" queued");
+    return sb.toString();
+  }
+}
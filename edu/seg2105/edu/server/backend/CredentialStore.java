@@ -0,0 +1,158 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Login ids and their password hashes, kept in a text file, one login
+ * per line:
+ *
+ *   pbkdf2-sha256:<iterations>:<salt>:<hash>:<loginId>
+ *
+ * with the salt and hash in Base64. The id comes last so it may contain
+ * anything but a line break. Each entry keeps the iteration count it was
+ * hashed with, so raising DEFAULT_ITERATIONS only affects new passwords.
+ *
+ * verify() is deliberately slow (tens of milliseconds of CPU) and is
+ * meant to run on CredentialVerifier's pool, never on a connection's
+ * thread. Changes are written to a temporary file and renamed over the
+ * old one, so a crash leaves either the old store or the new one.
+ */
+public final class CredentialStore {
+  public static final int DEFAULT_ITERATIONS = 100_000;
+
+  private static final String SCHEME = "pbkdf2-sha256";
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int SALT_BYTES = 16;
+  private static final int HASH_BITS = 256;
+
+  /** One login's hash. */
+  private static final class Entry {
+    final int iterations;
+    final byte[] salt;
+    final byte[] hash;
+
+    Entry(int iterations, byte[] salt, byte[] hash) {
+      this.iterations = iterations;
+      this.salt = salt;
+      this.hash = hash;
+    }
+  }
+
+  private final File file;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final SecureRandom random = new SecureRandom();
+  private final Entry unknown; // checked for ids with no entry, so they take as long as real ones
+
+  /** Loads file, or starts empty if it does not exist yet. */
+  public CredentialStore(File file) throws IOException {
+    this.file = file;
+    this.unknown = hash(new char[0]);
+    if (file.exists()) load();
+  }
+
+  /** True if password is loginId's. */
+  public boolean verify(String loginId, String password) {
+    Entry entry = entries.get(loginId);
+    Entry checked = (entry != null) ? entry : unknown;
+    byte[] hash = pbkdf2(password.toCharArray(), checked.salt, checked.iterations);
+    return MessageDigest.isEqual(hash, checked.hash) && entry != null;
+  }
+
+  /** Adds loginId, or changes its password; saved before this returns. */
+  public synchronized void setPassword(String loginId, String password) throws IOException {
+    if (loginId.isEmpty() || loginId.indexOf('\n') >= 0 || loginId.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("bad login id");
+    }
+    Entry old = entries.put(loginId, hash(password.toCharArray()));
+    try {
+      save();
+    } catch (IOException e) {
+      if (old != null) entries.put(loginId, old);
+      else entries.remove(loginId);
+      throw e;
+    }
+  }
+
+  /** Removes loginId; false if it had no entry. */
+  public synchronized boolean remove(String loginId) throws IOException {
+    if (entries.remove(loginId) == null) return false;
+    save();
+    return true;
+  }
+
+  public boolean contains(String loginId) { return entries.containsKey(loginId); }
+
+  public int size() { return entries.size(); }
+
+  public File file() { return file; }
+
+  private Entry hash(char[] password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    return new Entry(DEFAULT_ITERATIONS, salt, pbkdf2(password, salt, DEFAULT_ITERATIONS));
+  }
+
+  static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+    PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(ALGORITHM + " unavailable", e); // every JDK since 8 has it
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private void load() throws IOException {
+    Base64.Decoder base64 = Base64.getDecoder();
+    int lineNo = 0;
+    try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      for (String line; (line = in.readLine()) != null; ) {
+        lineNo++;
+        if (line.isEmpty() || line.startsWith("#")) continue;
+        String[] fields = line.split(":", 5);
+        try {
+          if (fields.length != 5 || !fields[0].equals(SCHEME)) throw new IllegalArgumentException();
+          entries.put(fields[4], new Entry(Integer.parseInt(fields[1]), base64.decode(fields[2]),
+              base64.decode(fields[3])));
+        } catch (IllegalArgumentException bad) {
+          throw new IOException(file + ":" + lineNo + ": not a credential line");
+        }
+      }
+    }
+  }
+
+  private void save() throws IOException {
+    Base64.Encoder base64 = Base64.getEncoder();
+    Path target = file.toPath().toAbsolutePath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      out.write("# simplechat credentials: " + SCHEME + ":iterations:salt:hash:loginId");
+      out.newLine();
+      for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+        Entry entry = e.getValue();
+        out.write(SCHEME + ":" + entry.iterations + ":" + base64.encodeToString(entry.salt) + ":"
+            + base64.encodeToString(entry.hash) + ":" + e.getKey());
+        out.newLine();
+      }
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,175 @@
+package edu.seg2105.edu.server.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks login passwords against a CredentialStore off the connection
+ * threads. Hashing runs on a fixed pool of threads behind a bounded
+ * queue, so a login storm costs at most that many cores and a queue's
+ * worth of memory; a login that finds the queue full is answered BUSY
+ * at once and told to retry.
+ *
+ * A password that checked out is remembered for cacheMillis (as an HMAC
+ * under a key that lives only in this process, never the password
+ * itself), so a client reconnecting within that time, as a whole crowd
+ * does after a network blip, is let in without hashing again. Only
+ * successes are remembered: every wrong guess pays for a hash.
+ */
+public final class CredentialVerifier {
+  public enum Result { OK, DENIED, BUSY }
+
+  public static final long DEFAULT_CACHE_MILLIS = 30_000;
+  public static final int DEFAULT_QUEUE = 1024;
+  /** Retry-after given to a login that found the queue full. */
+  static final long BUSY_RETRY_MILLIS = 1000;
+
+  private static final String MAC = "HmacSHA256";
+  private static final int PRUNE_ABOVE = 4096;
+
+  /** A password seen to be right, until expires (System.nanoTime()). */
+  private static final class Verified {
+    final byte[] mac;
+    final long expires;
+
+    Verified(byte[] mac, long expires) {
+      this.mac = mac;
+      this.expires = expires;
+    }
+  }
+
+  private final CredentialStore store;
+  private final ThreadPoolExecutor pool;
+  private final SecretKeySpec cacheKey;
+  private final ThreadLocal<Mac> macs;
+  private final Map<String, Verified> verified = new ConcurrentHashMap<>();
+  private volatile long cacheMillis;
+
+  final LongAdder hashed = new LongAdder();
+  final LongAdder cacheHits = new LongAdder();
+  final LongAdder denied = new LongAdder();
+  final LongAdder busy = new LongAdder();
+
+  public CredentialVerifier(CredentialStore store, int threads, int queueCapacity, long cacheMillis) {
+    this.store = store;
+    AtomicInteger n = new AtomicInteger();
+    this.pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), task -> {
+          Thread t = new Thread(task, "chat-auth-" + n.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    this.cacheKey = new SecretKeySpec(key, MAC);
+    this.macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance(MAC);
+        mac.init(cacheKey);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(MAC + " unavailable", e);
+      }
+    });
+    setCacheMillis(cacheMillis);
+  }
+
+  /** One thread per core: hashing is all CPU. */
+  public static int defaultThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  public CredentialStore store() { return store; }
+
+  /** How long a verified password is taken on trust; 0 hashes every login. */
+  public void setCacheMillis(long cacheMillis) {
+    this.cacheMillis = Math.max(0, cacheMillis);
+    if (this.cacheMillis == 0) verified.clear();
+  }
+
+  public long cacheMillis() { return cacheMillis; }
+
+  /**
+   * Whether password is loginId's. Completes at once on a cache hit, a
+   * missing password or a full queue; otherwise on a pool thread.
+   */
+  CompletableFuture<Result> verify(String loginId, String password) {
+    if (password == null) {
+      denied.increment();
+      return CompletableFuture.completedFuture(Result.DENIED);
+    }
+    byte[] mac = cacheMac(loginId, password);
+    Verified known = verified.get(loginId);
+    if (known != null && known.expires - System.nanoTime() > 0 && MessageDigest.isEqual(known.mac, mac)) {
+      cacheHits.increment();
+      return CompletableFuture.completedFuture(Result.OK);
+    }
+    CompletableFuture<Result> result = new CompletableFuture<>();
+    try {
+      pool.execute(() -> {
+        try {
+          hashed.increment();
+          if (store.verify(loginId, password)) {
+            remember(loginId, mac);
+            result.complete(Result.OK);
+          } else {
+            denied.increment();
+            result.complete(Result.DENIED);
+          }
+        } catch (RuntimeException e) {
+          ServerLog.warn("Password check for " + loginId + " failed: " + e);
+          result.complete(Result.DENIED);
+        }
+      });
+    } catch (RejectedExecutionException full) {
+      busy.increment();
+      result.complete(Result.BUSY);
+    }
+    return result;
+  }
+
+  /** Drops what is remembered for loginId, e.g. because its password changed. */
+  public void forget(String loginId) {
+    verified.remove(loginId);
+  }
+
+  private void remember(String loginId, byte[] mac) {
+    long ttl = cacheMillis;
+    if (ttl == 0) return;
+    long now = System.nanoTime();
+    if (verified.size() > PRUNE_ABOVE) verified.values().removeIf(v -> v.expires - now <= 0);
+    verified.put(loginId, new Verified(mac, now + TimeUnit.MILLISECONDS.toNanos(ttl)));
+  }
+
+  private byte[] cacheMac(String loginId, String password) {
+    Mac mac = macs.get();
+    mac.update(loginId.getBytes(StandardCharsets.UTF_8));
+    mac.update((byte) 0); // "ab"+"c" and "a"+"bc" differ
+    return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public void close() { pool.shutdownNow(); }
+
+  /** One line for the #auth console command. */
+  public String report() {
+    return "Credentials: " + store.size() + " logins in " + store.file() + "; " + pool.getMaximumPoolSize()
+        + " hashing threads, " + pool.getQueue().size() + " waiting, cache "
+        + ((cacheMillis == 0) ? "off" : TimeUnit.MILLISECONDS.toSeconds(cacheMillis) + " s") + "; "
+        + hashed.sum() + " hashed, " + cacheHits.sum() + " cached, " + denied.sum() + " denied, "
+        + busy.sum() + " busy";
+  }
+}
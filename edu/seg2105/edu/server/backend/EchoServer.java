@@ -6,63 +6,437 @@ package edu.seg2105.edu.server.backend;
 import ocsf.server.AbstractServer;
 import ocsf.server.ConnectionToClient;
 
-import java.util.Collection;
+import edu.seg2105.client.common.Authentication;
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandTable;
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.Heartbeat;
+import edu.seg2105.client.common.Presence;
+import edu.seg2105.client.common.RetryHint;
+import edu.seg2105.client.common.SequenceTag;
+import edu.seg2105.client.common.WriteBatching;
 
-public class EchoServer extends AbstractServer {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class EchoServer extends AbstractServer implements ServerEngine {
+
+  /** Messages a client may have waiting before its slow-consumer policy applies. */
+  public static final int DEFAULT_OUTBOUND_CAPACITY = 4096;
+
+  /** Messages per room replayed to a client when it logs in. */
+  public static final int DEFAULT_HISTORY = 50;
+
+  /** How long a dropped resumable client's rooms are kept for its #resume. */
+  public static final long RESUME_WINDOW_MILLIS = 10 * 60 * 1000;
+
+  /** Session attribute set by #resume: the client wants "#seq n" tags. */
+  static final String SEQUENCED = "sequenced";
+
+  /** Session attribute set by #password, until the login that uses it. */
+  private static final String PASSWORD = "password";
+
+  static final String INVALID_LOGIN_NOTICE =
+      "ERROR: Login ids may not contain spaces or start with #. Connection will close.";
+
+  static final String LOGIN_DENIED_NOTICE =
+      "ERROR: Incorrect login id or password. Connection will close.";
+
+  static final String SLOW_CONSUMER_NOTICE =
+      "ERROR: Too many messages waiting to be sent to you. Connection will close.";
+
+  static final String RATE_LIMIT_DROP_NOTICE =
+      "ERROR: You are sending too fast; messages are being dropped.";
+  static final String RATE_LIMIT_DISCONNECT_NOTICE =
+      "ERROR: You are sending too fast. Connection will close.";
+
+  /** Every connected client, whichever engine accepted it. */
+  private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+  private final Map<ConnectionToClient, OcsfClientSession> ocsfSessions = new ConcurrentHashMap<>();
+  private final RoomIndex rooms = new RoomIndex();
+  private final LoginRegistry logins = new LoginRegistry();
+  private volatile MessageJournal journal; // null: nothing is stored
+  private final Map<String, HistoryRing> history = new ConcurrentHashMap<>();
+  private final Map<String, HistoryRing> whispers = new ConcurrentHashMap<>(); // by target, for #resume only
+  private volatile int historySize = DEFAULT_HISTORY;
+  // numbers room and whisper lines; seeded from the clock so numbers keep rising across restarts
+  private final AtomicLong relaySeq = new AtomicLong(System.currentTimeMillis() * 1000);
+  private final Map<String, Parked> parked = new ConcurrentHashMap<>();
+
+  /** Carries the connections: this server itself (OCSF) unless another engine attached. */
+  private volatile ServerEngine engine = this;
+
+  private volatile int outboundCapacity = DEFAULT_OUTBOUND_CAPACITY;
+  private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+  private final LongAdder outboundDrops = new LongAdder();
+  private volatile WriteBatching writeBatching = WriteBatching.IMMEDIATE;
+  private volatile boolean compression = true;
+  private volatile int compressionThreshold = FrameCompression.DEFAULT_THRESHOLD;
+  private final Executor writers = VirtualThreads.blockingExecutor("chat-writer-");
+  private final ScheduledExecutorService timers = VirtualThreads.scheduler("chat-timer");
+  private final ServerMetrics metrics = new ServerMetrics(this);
+  private final RateLimiter rateLimiter = new RateLimiter();
+  private volatile ClusterRelay cluster; // null: a single node
+  private final IdleReaper reaper = new IdleReaper(this);
+  private final LoginAdmission admission = new LoginAdmission();
+  private volatile CredentialVerifier credentials; // null: any login id is let in
+  private final PresenceFeed presence = new PresenceFeed(this);
 
   public EchoServer(int port) {
     super(port);
   }
 
+  public ServerEngine getEngine() { return engine; }
+
+  public ServerMetrics metrics() { return metrics; }
+
+  /** Per-login and global message limits; adjustable while clients are on. */
+  public RateLimiter rateLimiter() { return rateLimiter; }
+
+  /** How fast logins are taken; adjustable while clients are on. */
+  public LoginAdmission admission() { return admission; }
+
+  /**
+   * Requires every login to come with a password that checks out against
+   * verifier's store; null lets any login id in, as before.
+   */
+  public void setCredentials(CredentialVerifier verifier) { this.credentials = verifier; }
+
+  public CredentialVerifier credentials() { return credentials; }
+
+  void attachEngine(ServerEngine engine) { this.engine = engine; }
+
+  /** Relays room lines and whispers to and from other nodes; null for a single node. */
+  public void setCluster(ClusterRelay cluster) { this.cluster = cluster; }
+
+  public ClusterRelay cluster() { return cluster; }
+
+  /**
+   * How long a connection may stay silent: heartbeatMillis for clients that
+   * ping, idleMillis for the rest (0 turns either off). Also applies to the
+   * clients connected now.
+   */
+  public void setTimeouts(long heartbeatMillis, long idleMillis) {
+    reaper.setTimeouts(heartbeatMillis, idleMillis);
+  }
+
+  /** One line for the #timeouts console command. */
+  public String timeoutReport() { return reaper.report(); }
+
+  public long heartbeatTimeoutMillis() { return reaper.heartbeatMillis(); }
+
+  public long idleTimeoutMillis() { return reaper.idleMillis(); }
+
+  /** How often roster-keeping clients are sent who logged in or out. */
+  public void setPresenceInterval(long intervalMillis) { presence.setInterval(intervalMillis); }
+
+  /** One line for the #presence console command. */
+  public String presenceReport() { return presence.report(); }
+
+  /** Stores every relayed message from now on; null turns journaling off. */
+  public void setJournal(MessageJournal journal) { this.journal = journal; }
+
+  public MessageJournal getJournal() { return journal; }
+
+  /** Journals one relayed message; its sequence number, or 0 when not journaling. */
+  private long record(String sender, String room, String text) {
+    MessageJournal j = journal;
+    if (j == null) return 0;
+    try {
+      return j.append(sender, room, text);
+    } catch (Exception e) {
+      return 0; // the journal reported its own failure; relaying goes on
+    }
+  }
+
+  // ================== History ==================
+  /** Messages kept per room for replay; 0 turns replay off. Drops what is kept now. */
+  public void setHistorySize(int size) {
+    this.historySize = Math.max(0, size);
+    history.clear();
+    whispers.clear();
+  }
+
+  private void remember(String room, OutboundMessage msg) {
+    remember(history, room, msg);
+  }
+
+  private void remember(Map<String, HistoryRing> rings, String key, OutboundMessage msg) {
+    int size = historySize;
+    if (size > 0) rings.computeIfAbsent(key, k -> new HistoryRing(size)).add(msg);
+  }
+
+  /** Names the server uses for itself: "@loginId" for whispers, "*" for everyone. */
+  static boolean reservedRoom(String room) {
+    return room.startsWith("@") || room.startsWith("*");
+  }
+
+  /** Sends room's recent messages to client as one batch, before it joins room. */
+  private void replayHistory(String room, ClientSession client) {
+    HistoryRing ring = history.get(room);
+    if (ring == null) return;
+    try { client.sendAll(ring.snapshot()); } catch (Exception ignore) {}
+  }
+
+  // ================== Resume ==================
+  /** Where a resumable client was when its connection dropped. */
+  private static final class Parked {
+    final List<String> rooms;
+    final long expires;
+
+    Parked(List<String> rooms) {
+      this.rooms = rooms;
+      this.expires = System.currentTimeMillis() + RESUME_WINDOW_MILLIS;
+    }
+
+    boolean expired() { return System.currentTimeMillis() > expires; }
+  }
+
+  /** msg as client should get it: tagged if the client resumes. */
+  static OutboundMessage forSession(ClientSession client, OutboundMessage msg) {
+    return (client.getInfo(SEQUENCED) != null) ? msg.tagged() : msg;
+  }
+
+  /** On disconnect; call before the login id is released. */
+  private void park(String loginId, ClientSession client, List<String> joined) {
+    if (client.getInfo(SEQUENCED) == null) return;
+    if (parked.size() > 1024) parked.values().removeIf(Parked::expired);
+    parked.put(loginId, new Parked(joined));
+  }
+
+  /**
+   * #resume: rejoins the rooms the client's last connection was in (the
+   * lobby if there is no such connection) and replays, as one batch, each
+   * retained line it has not seen. The rooms are joined before the rings
+   * are read, so every line is live or replayed, some both: the client
+   * drops numbers it has already had. A lastSeq ahead of every number
+   * handed out (a clock set back across a restart) counts as 0.
+   */
+  private void resume(String loginId, long lastSeq, ClientSession client) {
+    client.setInfo(SEQUENCED, Boolean.TRUE);
+    Parked left = parked.remove(loginId);
+    boolean back = left != null && !left.expired();
+    List<String> joined = back ? left.rooms : Collections.singletonList(RoomIndex.LOBBY);
+    if (lastSeq > relaySeq.get()) lastSeq = 0;
+
+    reply(client, loginId + " has logged on.");
+    for (String room : joined) joinRoom(room, client);
+    List<OutboundMessage> gap = new ArrayList<>();
+    for (String room : joined) gap.addAll(retained(history, room, lastSeq));
+    if (back) gap.addAll(retained(whispers, loginId, lastSeq));
+    gap.sort(Comparator.comparingLong(OutboundMessage::seq));
+    List<OutboundMessage> tagged = new ArrayList<>(gap.size());
+    for (OutboundMessage msg : gap) tagged.add(msg.tagged());
+
+    try { client.sendAll(tagged); } catch (Exception ignore) {}
+    ServerLog.info(loginId + " has logged on.");
+    if (back) ServerLog.info(loginId + " resumed after " + lastSeq + "; " + gap.size() + " replayed.");
+  }
+
+  private static List<OutboundMessage> retained(Map<String, HistoryRing> rings, String key, long afterSeq) {
+    HistoryRing ring = rings.get(key);
+    return (ring == null) ? Collections.emptyList() : ring.snapshot(afterSeq);
+  }
+
+  // ================== Outbound queues ==================
+  /** Applies to clients that connect from now on. */
+  public void setOutboundLimits(int capacity, SlowConsumerPolicy policy) {
+    this.outboundCapacity = Math.max(1, capacity);
+    this.slowConsumerPolicy = policy;
+  }
+
+  /** Takes effect on each session's next flush, so it can be tuned while clients are on. */
+  public void setWriteBatching(WriteBatching batching) { this.writeBatching = batching; }
+
+  public WriteBatching writeBatching() { return writeBatching; }
+
+  /**
+   * Whether framed clients that offer compression get it, and the smallest
+   * frame worth compressing. Applies to upgrades from now on.
+   */
+  public void setCompression(boolean enabled, int threshold) {
+    this.compression = enabled;
+    this.compressionThreshold = Math.max(1, threshold);
+  }
+
+  /** What to use with a client that sent upgradeRequest; null for no compression. */
+  FrameCompression negotiateCompression(String upgradeRequest) {
+    return compression ? FrameCompression.accept(upgradeRequest, compressionThreshold) : null;
+  }
+
+  /** The upgrade echo, naming the compression picked if any. */
+  static String upgradeReply(FrameCompression compression) {
+    return (compression == null) ? FrameCodec.UPGRADE_REQUEST
+        : FrameCodec.UPGRADE_REQUEST + " " + compression.mode();
+  }
+
+  <T> OutboundQueue<T> newOutboundQueue() {
+    return new OutboundQueue<>(outboundCapacity, slowConsumerPolicy, outboundDrops);
+  }
+
+  /** Writers for sessions whose sockets block (OCSF and the virtual-thread engine). */
+  Executor writers() { return writers; }
+
+  /** For sessions that must wait without blocking: OCSF's delays. */
+  ScheduledExecutorService timers() { return timers; }
+
+  String skippedNotice(long count) {
+    return "SERVER MESSAGE> " + count + " messages skipped.";
+  }
+
+  /** One line for the #queues console command. */
+  public String outboundQueueReport() {
+    int[] depths = queueDepths();
+    return "Outbound queues: " + connectionCount() + " clients, " + depths[0]
+        + " messages waiting (deepest " + depths[1] + "), " + outboundDrops() + " dropped, limit "
+        + outboundCapacity + " (" + slowConsumerPolicy.name().toLowerCase().replace('_', '-') + ")";
+  }
+
+  /** {messages waiting in all outbound queues, deepest single queue}. */
+  int[] queueDepths() {
+    int waiting = 0, deepest = 0;
+    for (ClientSession session : sessions) {
+      int depth = session.queuedMessages();
+      waiting += depth;
+      deepest = Math.max(deepest, depth);
+    }
+    return new int[] { waiting, deepest };
+  }
+
+  long outboundDrops() { return outboundDrops.sum(); }
+
+  int connectionCount() { return sessions.size(); }
+
   // ================== Lifecycle text (2001, 2012, 2009) ==================
   @Override
   protected void serverStarted() {
+    presence.start();
     // Some tests say "clients", others "connections" — print both to satisfy all.
-    System.out.println("Server listening for clients on port " + getPort());
-    System.out.println("Server listening for connections on port " + getPort());
+    ServerLog.info("Server listening for clients on port " + engine.getPort());
+    ServerLog.info("Server listening for connections on port " + engine.getPort());
   }
 
   @Override
   protected void serverStopped() {
-    System.out.println("Server stopped.");
+    ServerLog.info("Server stopped.");
+  }
+
+  /** Every engine's close ends here (OCSF calls it itself). */
+  @Override
+  protected void serverClosed() {
+    presence.stop();
   }
 
+  // ================== OCSF hooks -> engine-neutral hooks ==================
   @Override
   protected void clientConnected(ConnectionToClient client) {
-    System.out.println("A new client has connected to the server.");
+    clientConnected(sessionFor(client));
   }
-  
+
   @Override
   synchronized protected void clientDisconnected(ConnectionToClient client) {
-	    String id = (String) client.getInfo("loginId");
-	    if (id != null) System.out.println(id + " has disconnected.");
-	    else System.out.println("Client disconnected: " + client);
-	  }
+    clientDisconnected(sessionFor(client));
+    ocsfSessions.remove(client);
+  }
+
+  @Override
+  synchronized protected void clientException(ConnectionToClient client, Throwable exception) {
+    clientException(sessionFor(client), exception);
+    ocsfSessions.remove(client);
+  }
 
-  // ================== Message handling (login + echo) ==================
   @Override
   protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
-    String text = String.valueOf(msg);
+    metrics.bytesIn.add(String.valueOf(msg).length()); // OCSF does not expose its socket
+    OcsfClientSession session = sessionFor(client);
+    if (!session.hold(msg)) handleMessageFromClient(msg, session);
+  }
 
-    if (text.startsWith("#login")) {
-      String[] parts = text.split("\\s+", 2);
-      String loginIdParam = (parts.length >= 2) ? parts[1].trim() : "";
-      String current = (String) client.getInfo("loginId");
+  private OcsfClientSession sessionFor(ConnectionToClient client) {
+    return ocsfSessions.computeIfAbsent(client, c -> new OcsfClientSession(this, c));
+  }
 
-      // EXACT for 2004
-      System.out.println("Message received: " + text + " from null.");
+  // ================== Connection lifecycle (any engine) ==================
+  protected void clientConnected(ClientSession client) {
+    sessions.add(client);
+    reaper.watch(client);
+    ServerLog.info("A new client has connected to the server.");
+  }
 
-      if (current != null || loginIdParam.isEmpty()) {
-        try {
-          client.sendToClient("ERROR: Missing or duplicate login. Connection will close.");
-          client.close();
-        } catch (Exception ignore) {}
-        return;
-      }
+  synchronized protected void clientDisconnected(ClientSession client) {
+    sessions.remove(client);
+    reaper.forget(client);
+    presence.unsubscribe(client);
+    List<String> joined = rooms.leaveAll(client);
+    String id = (String) client.getInfo("loginId");
+    if (id != null) {
+      park(id, client, joined);
+      if (logins.unregister(id, client)) presence.changed(id, false);
+    }
+    if (id != null) ServerLog.info(id + " has disconnected.");
+    else ServerLog.info("Client disconnected: " + client);
+  }
+
+  /** Connection dropped by the peer (OCSF reports these without clientDisconnected). */
+  protected void clientException(ClientSession client, Throwable exception) {
+    sessions.remove(client);
+    reaper.forget(client);
+    presence.unsubscribe(client);
+    List<String> joined = rooms.leaveAll(client);
+    String id = (String) client.getInfo("loginId");
+    if (id != null) {
+      park(id, client, joined);
+      if (logins.unregister(id, client)) presence.changed(id, false);
+    }
+  }
+
+  // ============ Message handling (login, rooms, whisper, echo) ============
+  /** A client command; loginId is null for the ones a client may send before logging in. */
+  @FunctionalInterface
+  private interface ClientCommand {
+    void run(EchoServer server, CommandLine line, ClientSession client, String loginId);
+  }
+
+  /** Handled whether or not the client has logged in. */
+  private static final CommandTable<ClientCommand> SESSION_COMMANDS = CommandTable.<ClientCommand>builder()
+      // Engines that can switch to frames answer this themselves; OCSF cannot.
+      .add("#wire", (server, line, client, id) -> reply(client, FrameCodec.UPGRADE_DECLINED))
+      .add("#login", (server, line, client, id) -> server.admit(line, client, false))
+      .add(SequenceTag.RESUME, (server, line, client, id) -> server.admit(line, client, true))
+      .add(Authentication.PASSWORD, (server, line, client, id) -> server.password(line, client))
+      .add(Heartbeat.PING, (server, line, client, id) -> server.ping(client))
+      .build();
+
+  /** Logged-in clients only, within the rate limits; any other line is chat. */
+  private static final CommandTable<ClientCommand> USER_COMMANDS = CommandTable.<ClientCommand>builder()
+      .add("#join", EchoServer::join)
+      .add("#leave", EchoServer::leave)
+      .add("#whisper", EchoServer::whisper)
+      .add(Presence.WHO, EchoServer::who)
+      .add(Presence.SUBSCRIBE, EchoServer::subscribe)
+      .build();
+
+  protected void handleMessageFromClient(Object msg, ClientSession client) {
+    long received = System.nanoTime();
+    metrics.messagesIn.increment();
+    reaper.heard(client);
+    String text = String.valueOf(msg);
 
-      client.setInfo("loginId", loginIdParam);
-      try { client.sendToClient(loginIdParam + " has logged on."); } catch (Exception ignore) {}
-      System.out.println(loginIdParam + " has logged on.");
+    ClientCommand command = SESSION_COMMANDS.lookup(text);
+    if (command != null) {
+      command.run(this, CommandLine.of(text), client, null);
       return;
     }
 
@@ -75,16 +449,421 @@ public class EchoServer extends AbstractServer {
       return;
     }
 
+    RateLimitPolicy policy = rateLimiter.policy();
+    long over = rateLimiter.acquire(loginId, policy);
+    if (over > 0) {
+      if (!overLimit(msg, loginId, client, policy, over)) return;
+      received = System.nanoTime(); // fan-out latency is the server's, not the wait's
+    }
+    handleAdmitted(text, loginId, client, received);
+  }
+
+  private void ping(ClientSession client) {
+    reaper.heartbeat(client);
+    reply(client, Heartbeat.PONG);
+  }
+
+  /**
+   * A login through admission control: now, once its token is due, or
+   * turned away with a retry hint. A queued login never blocks the caller
+   * (on OCSF that would be every client's handler): sessions that cannot
+   * wait on their own thread hand it back through handleDelayed.
+   */
+  private void admit(CommandLine line, ClientSession client, boolean resume) {
+    long verdict = admission.admit();
+    if (verdict == 0) {
+      login(line, client, resume);
+    } else if (verdict > 0) {
+      if (client.delay(line.text(), verdict)) login(line, client, resume);
+    } else {
+      ServerLog.debug("Login shed, retry after " + -verdict + " ms: " + line.text());
+      try {
+        client.sendToClient(RetryHint.notice(-verdict));
+        client.close();
+      } catch (Exception ignore) {}
+    }
+  }
+
+  /** #password <password>: kept for the #login or #resume that follows. */
+  private void password(CommandLine line, ClientSession client) {
+    if (client.getInfo("loginId") != null) {
+      reply(client, "You are already logged in.");
+      return;
+    }
+    if (credentials == null) { // not a server with passwords: refuse rather than drop it quietly
+      try {
+        client.sendToClient("ERROR: You must login first. Connection will close.");
+        client.close();
+      } catch (Exception ignore) {}
+      return;
+    }
+    String password = line.rest(0);
+    client.setInfo(PASSWORD, (password != null) ? password : "");
+  }
+
+  /** A login waiting for its password to be checked. */
+  private static final class PendingLogin {
+    final String loginId;
+    final long lastSeq;
+    final boolean resume;
+    final CompletableFuture<CredentialVerifier.Result> verified;
+
+    PendingLogin(String loginId, long lastSeq, boolean resume,
+        CompletableFuture<CredentialVerifier.Result> verified) {
+      this.loginId = loginId;
+      this.lastSeq = lastSeq;
+      this.resume = resume;
+      this.verified = verified;
+    }
+  }
+
+  /**
+   * What a login id may look like: other clients see it at the start of
+   * every line it says, so no whitespace or control characters, and no
+   * leading '#' that would pass for a server tag (#seq, #roster...).
+   */
+  static boolean validLoginId(String loginId) {
+    if (loginId.isEmpty() || loginId.charAt(0) == '#') return false;
+    for (int i = 0; i < loginId.length(); i++) {
+      char c = loginId.charAt(i);
+      if (Character.isWhitespace(c) || Character.isSpaceChar(c) || Character.isISOControl(c)) return false;
+    }
+    return true;
+  }
+
+  /** #login <loginId>, or #resume <loginId> <lastSeq>; then the password check, if any. */
+  private void login(CommandLine line, ClientSession client, boolean resume) {
+    String loginIdParam = resume ? line.arg(0) : line.rest(0);
+    if (loginIdParam == null) loginIdParam = "";
+    String current = (String) client.getInfo("loginId");
+    long lastSeq = 0;
+    if (resume) {
+      try {
+        lastSeq = Long.parseLong(line.rest(1));
+      } catch (RuntimeException bad) {
+        loginIdParam = ""; // "#resume <loginId> <lastSeq>" or nothing
+      }
+    }
+
+    // EXACT for 2004
+    ServerLog.info("Message received: " + line.text() + " from null.");
+
+    if (current != null || loginIdParam.isEmpty()) {
+      rejectLogin(client);
+      return;
+    }
+    if (!validLoginId(loginIdParam)) {
+      metrics.loginsFailed.increment();
+      try {
+        client.sendToClient(INVALID_LOGIN_NOTICE);
+        client.close();
+      } catch (Exception ignore) {}
+      return;
+    }
+    CredentialVerifier verifier = credentials;
+    if (verifier == null) {
+      enter(loginIdParam, lastSeq, resume, client);
+      return;
+    }
+    String password = (String) client.getInfo(PASSWORD);
+    client.setInfo(PASSWORD, null);
+    // hashing runs on the verifier's pool; this client's input waits for it
+    PendingLogin pending = new PendingLogin(loginIdParam, lastSeq, resume,
+        verifier.verify(loginIdParam, password));
+    if (client.await(pending, pending.verified)) checked(pending, client);
+  }
+
+  /** The password check for pending is done. */
+  private void checked(PendingLogin pending, ClientSession client) {
+    if (!sessions.contains(client)) return; // gone while it was checked
+    CredentialVerifier.Result result = pending.verified.getNow(CredentialVerifier.Result.BUSY);
+    if (result == CredentialVerifier.Result.OK) {
+      enter(pending.loginId, pending.lastSeq, pending.resume, client);
+      return;
+    }
+    metrics.loginsFailed.increment();
+    String notice;
+    if (result == CredentialVerifier.Result.BUSY) {
+      notice = RetryHint.notice(CredentialVerifier.BUSY_RETRY_MILLIS);
+    } else {
+      notice = LOGIN_DENIED_NOTICE;
+      ServerLog.info("Login as " + pending.loginId + " refused: wrong or missing password.");
+    }
+    try {
+      client.sendToClient(notice);
+      client.close();
+    } catch (Exception ignore) {}
+  }
+
+  private void rejectLogin(ClientSession client) {
+    metrics.loginsFailed.increment();
+    try {
+      client.sendToClient("ERROR: Missing or duplicate login. Connection will close.");
+      client.close();
+    } catch (Exception ignore) {}
+  }
+
+  /** Logs client in as loginIdParam, unless another connection already has that id. */
+  private void enter(String loginIdParam, long lastSeq, boolean resume, ClientSession client) {
+    // the registry claim makes the id unique across connections, not just this one
+    if (!logins.register(loginIdParam, client)) {
+      rejectLogin(client);
+      return;
+    }
+
+    client.setInfo("loginId", loginIdParam);
+    metrics.loginsSucceeded.increment();
+    presence.changed(loginIdParam, true);
+    if (resume) {
+      resume(loginIdParam, lastSeq, client);
+      return;
+    }
+    try { client.sendToClient(loginIdParam + " has logged on."); } catch (Exception ignore) {}
+    // replay before joining: a line said in between is missed rather than shown twice
+    replayHistory(RoomIndex.LOBBY, client);
+    joinRoom(RoomIndex.LOBBY, client);
+    ServerLog.info(loginIdParam + " has logged on.");
+  }
+
+  /**
+   * A message over the rate limit: true if it has been delayed on this
+   * thread and is to be handled now, false if it was dropped, its sender
+   * disconnected, or the session will hand it back through handleDelayed.
+   */
+  private boolean overLimit(Object msg, String loginId, ClientSession client, RateLimitPolicy policy,
+      long overNanos) {
+    if (policy == RateLimitPolicy.DELAY
+        && overNanos <= TimeUnit.MILLISECONDS.toNanos(RateLimiter.MAX_DELAY_MILLIS)) {
+      // the tokens are taken: handle it once they are due
+      return client.delay(msg, TimeUnit.NANOSECONDS.toMillis(overNanos + 999_999));
+    }
+    if (policy == RateLimitPolicy.DISCONNECT) {
+      rateLimiter.disconnected.increment();
+      ServerLog.info(loginId + " exceeded the rate limit and was disconnected.");
+      try {
+        client.sendToClient(RATE_LIMIT_DISCONNECT_NOTICE);
+        client.close();
+      } catch (Exception ignore) {}
+      return false;
+    }
+    if (rateLimiter.firstDrop(loginId)) reply(client, RATE_LIMIT_DROP_NOTICE);
+    return false;
+  }
+
+  /**
+   * A delayed message whose wait is over, from a session that could not
+   * wait in delay() or await(): a queued login or a checked password if
+   * the client has not logged in yet.
+   */
+  void handleDelayed(Object msg, ClientSession client) {
+    if (!sessions.contains(client)) return; // gone while it waited: no login for a dead session
+    if (msg instanceof PendingLogin) {
+      checked((PendingLogin) msg, client);
+      return;
+    }
+    String loginId = (String) client.getInfo("loginId");
+    if (loginId != null) {
+      handleAdmitted(String.valueOf(msg), loginId, client, System.nanoTime());
+      return;
+    }
+    CommandLine line = CommandLine.of(String.valueOf(msg));
+    login(line, client, SequenceTag.RESUME.equalsIgnoreCase(line.name()));
+  }
+
+  /** Commands and chat from a logged-in client, within the rate limits. */
+  private void handleAdmitted(String text, String loginId, ClientSession client, long received) {
+    ClientCommand command = USER_COMMANDS.lookup(text);
+    if (command != null) {
+      command.run(this, CommandLine.of(text), client, loginId);
+      return;
+    }
+
+    String room = rooms.currentRoom(client);
+    if (room == null) {
+      reply(client, "You are not in any room. Use #join <room>.");
+      return;
+    }
+
     // EXACT for 2005/2006
-    System.out.println("Message received: " + text + " from " + loginId);
-    sendToAllClients(loginId + "> " + text);
+    ServerLog.info("Message received: " + text + " from " + loginId);
+    record(loginId, room, text);
+    OutboundMessage line = new OutboundMessage(roomLine(room, loginId, text), relaySeq.incrementAndGet());
+    remember(room, line);
+    rooms.broadcast(room, line);
+    metrics.fanOutNanos.record(System.nanoTime() - received);
+    ClusterRelay relay = cluster;
+    if (relay != null) relay.publish(ClusterRelay.ROOM, loginId, room, text);
+  }
+
+  private static String roomLine(String room, String loginId, String text) {
+    return RoomIndex.LOBBY.equals(room) ? loginId + "> " + text : "[" + room + "] " + loginId + "> " + text;
+  }
+
+  private void join(CommandLine line, ClientSession client, String loginId) {
+    if (line.argCount() != 1) {
+      reply(client, "Usage: #join <room>");
+      return;
+    }
+    String room = line.arg(0);
+    if (reservedRoom(room)) {
+      reply(client, "Room names may not start with @ or *.");
+      return;
+    }
+    if (!rooms.members(room).contains(client)) replayHistory(room, client);
+    if (joinRoom(room, client)) {
+      ServerLog.info(loginId + " has joined room " + room + ".");
+      broadcastToRoom(room, loginId + " has joined room " + room + ".");
+    }
+  }
+
+  /**
+   * rooms.join, undone if client has disconnected by the time it is in:
+   * its leaveAll may have run before the join, and would not run again.
+   */
+  private boolean joinRoom(String room, ClientSession client) {
+    boolean joined = rooms.join(room, client);
+    if (sessions.contains(client)) return joined; // the disconnect removes it from sessions first
+    rooms.leaveAll(client);
+    return false;
+  }
+
+  private void leave(CommandLine line, ClientSession client, String loginId) {
+    if (line.argCount() != 1) {
+      reply(client, "Usage: #leave <room>");
+      return;
+    }
+    String room = line.arg(0);
+    if (rooms.leave(room, client)) {
+      ServerLog.info(loginId + " has left room " + room + ".");
+      reply(client, "You left room " + room + ".");
+      broadcastToRoom(room, loginId + " has left room " + room + ".");
+    } else {
+      reply(client, "You are not in room " + room + ".");
+    }
+  }
+
+  private void whisper(CommandLine line, ClientSession client, String loginId) {
+    String to = line.arg(0);
+    String text = line.rest(1);
+    if (text == null) {
+      reply(client, "Usage: #whisper <loginId> <message>");
+      return;
+    }
+    // straight to the one connection: no broadcast, no room
+    ClientSession target = logins.find(to);
+    ClusterRelay relay = cluster;
+    if (target == null && relay != null && relay.hasPeers()) {
+      // maybe on another node; nothing comes back to say whether it arrived
+      ServerLog.info(loginId + " whispered to " + to + " (relayed to peers).");
+      relay.publish(ClusterRelay.WHISPER, loginId, to, text);
+      reply(client, loginId + " (whisper to " + to + ")> " + text);
+      return;
+    }
+    if (target == null) {
+      reply(client, "No user " + to + " is logged on.");
+      return;
+    }
+    ServerLog.info(loginId + " whispered to " + to + ".");
+    deliverWhisper(loginId, to, target, text);
+    if (target != client) reply(client, loginId + " (whisper to " + to + ")> " + text);
+  }
+
+  /** #who: everyone logged on to this node, answered from the login registry. */
+  private void who(CommandLine line, ClientSession client, String loginId) {
+    List<String> ids = logins.ids();
+    reply(client, "Online (" + ids.size() + "): " + String.join(", ", ids));
+  }
+
+  /** #presence on|off: start or stop sending this client roster updates. */
+  private void subscribe(CommandLine line, ClientSession client, String loginId) {
+    String arg = (line.argCount() == 1) ? line.arg(0) : "";
+    if (arg.equalsIgnoreCase("on")) presence.subscribe(client);
+    else if (arg.equalsIgnoreCase("off")) presence.unsubscribe(client);
+    else reply(client, "Usage: #presence on|off");
+  }
+
+  private void deliverWhisper(String from, String to, ClientSession target, String text) {
+    record(from, "@" + to, text);
+    OutboundMessage whisper = new OutboundMessage(from + " (whisper)> " + text,
+        relaySeq.incrementAndGet());
+    remember(whispers, to, whisper); // kept apart from rooms: only the target's #resume replays it
+    try { target.send(forSession(target, whisper)); } catch (Exception ignore) {}
+  }
+
+  /**
+   * A line said on another node: handled as if said here, minus the rate
+   * limits. A peer is held to the same rules as a client: no room line into
+   * a reserved scope, no sender id a login here would have been refused.
+   */
+  void deliverFromPeer(byte kind, String sender, String scope, String text) {
+    if (!validLoginId(sender) || (kind != ClusterRelay.WHISPER && reservedRoom(scope))) {
+      ServerLog.warn("Dropped relayed line from " + sender + " to " + scope);
+      return;
+    }
+    if (kind == ClusterRelay.WHISPER) {
+      ClientSession target = logins.find(scope);
+      if (target != null) deliverWhisper(sender, scope, target, text);
+      return;
+    }
+    record(sender, scope, text);
+    OutboundMessage line = new OutboundMessage(roomLine(scope, sender, text), relaySeq.incrementAndGet());
+    remember(scope, line);
+    rooms.broadcast(scope, line);
+  }
+
+  private static void reply(ClientSession client, String msg) {
+    try { client.sendToClient(msg); } catch (Exception ignore) {}
+  }
+
+  /** Fan-out to one room's members only; returns how many there were. */
+  public int broadcastToRoom(String room, String msg) {
+    return rooms.broadcast(room, new OutboundMessage(msg));
+  }
+
+  /** The session logged in as loginId, or null; O(1). */
+  public ClientSession findUser(String loginId) {
+    return logins.find(loginId);
+  }
+
+  public int loggedInCount() {
+    return logins.size();
+  }
+
+  /** Every login id on this node, sorted. */
+  public List<String> onlineIds() {
+    return logins.ids();
+  }
+
+  /** Room name -> member count. */
+  public Map<String, Integer> roomSizes() {
+    return rooms.sizes();
+  }
+
+  /** Engine-neutral sendToAllClients: every connected session, failures skipped. */
+  public void sendToAllSessions(String msg) {
+    broadcast(new OutboundMessage(msg));
+  }
+
+  /** Fan-out of one message, encoded once for however many recipients there are. */
+  public void broadcast(OutboundMessage msg) {
+    for (ClientSession session : sessions) {
+      try { session.send(msg); } catch (Exception ignore) {}
+    }
   }
-   
 
   // =============== Utilities used by ServerConsole commands ===============
   public void broadcastServerMessage(String payload) {
-    sendToAllClients(payload);
-    System.out.println(payload);
+    record("SERVER", "*", payload);
+    sendToAllSessions(payload);
+    ServerLog.info(payload);
+  }
+
+  /** A server message for one room; returns how many members got it. */
+  public int broadcastServerMessage(String room, String payload) {
+    record("SERVER", room, payload);
+    OutboundMessage msg = new OutboundMessage(payload, relaySeq.incrementAndGet());
+    remember(room, msg);
+    return rooms.broadcast(room, msg);
   }
 
   public void closeAllClientsWithNotice(String notice) {
@@ -92,8 +871,10 @@ public class EchoServer extends AbstractServer {
     try {
       broadcastServerMessage(notice);
     } catch (Exception ignore) {}
+    // OCSF closes its connections directly, so let the writers deliver the notice first
+    for (OcsfClientSession session : ocsfSessions.values()) session.awaitDrained(1000);
     try {
-      this.close(); // also disconnects clients
+      engine.close(); // also disconnects clients
     } catch (Exception ignore) {}
   }
 
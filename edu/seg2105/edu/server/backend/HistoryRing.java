@@ -0,0 +1,54 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last few messages of one room, for replay to clients that arrive
+ * later. Lock-free: a writer claims the next index and stores into its
+ * slot, overwriting the oldest message once the ring is full. A snapshot
+ * taken while a writer is between the two steps just skips that slot.
+ */
+final class HistoryRing {
+  private static final class Slot {
+    final long index;
+    final OutboundMessage msg;
+
+    Slot(long index, OutboundMessage msg) {
+      this.index = index;
+      this.msg = msg;
+    }
+  }
+
+  private final AtomicReferenceArray<Slot> slots;
+  private final AtomicLong next = new AtomicLong();
+
+  HistoryRing(int capacity) {
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  void add(OutboundMessage msg) {
+    long index = next.getAndIncrement();
+    slots.set((int) (index % slots.length()), new Slot(index, msg));
+  }
+
+  /** Oldest first. */
+  List<OutboundMessage> snapshot() {
+    return snapshot(-1);
+  }
+
+  /** Oldest first, only messages sequenced after afterSeq. */
+  List<OutboundMessage> snapshot(long afterSeq) {
+    int capacity = slots.length();
+    long end = next.get();
+    List<OutboundMessage> out = new ArrayList<>((int) Math.min(end, capacity));
+    for (long i = Math.max(0, end - capacity); i < end; i++) {
+      Slot slot = slots.get((int) (i % capacity));
+      // null or an older index: not stored yet; newer: overwritten since we read end
+      if (slot != null && slot.index == i && slot.msg.seq() > afterSeq) out.add(slot.msg);
+    }
+    return out;
+  }
+}
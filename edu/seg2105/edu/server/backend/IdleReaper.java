@@ -0,0 +1,133 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes connections that have gone quiet for too long, which is how the
+ * server finds peers that vanished without a FIN (a laptop shut, a cable
+ * pulled): nothing else would ever read from or fail on those sockets.
+ *
+ * Clients that send Heartbeat.PING have said they heartbeat, and are closed
+ * after heartbeatMillis without a word; the rest, which may just be quiet,
+ * only after idleMillis (0: never). Receiving anything counts, and only
+ * moves a timestamp forward: each connection has one timer on the wheel,
+ * and when it fires it either closes the connection or is set again for
+ * the time left.
+ */
+final class IdleReaper {
+  static final long DEFAULT_HEARTBEAT_MILLIS = 45_000;
+  static final long DEFAULT_IDLE_MILLIS = 0;
+
+  private static final long TICK_MILLIS = 100;
+  private static final int SLOTS = 1024;
+
+  /** One connection's activity. */
+  private static final class Watch {
+    final ClientSession client;
+    volatile long lastHeard = System.currentTimeMillis();
+    volatile boolean heartbeats;
+    volatile TimingWheel.Timer timer;
+
+    Watch(ClientSession client) {
+      this.client = client;
+    }
+  }
+
+  private final EchoServer server;
+  private final Map<ClientSession, Watch> watches = new ConcurrentHashMap<>();
+  private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, SLOTS, "chat-reaper");
+  private volatile long heartbeatMillis = DEFAULT_HEARTBEAT_MILLIS;
+  private volatile long idleMillis = DEFAULT_IDLE_MILLIS;
+
+  final LongAdder reaped = new LongAdder();
+
+  IdleReaper(EchoServer server) {
+    this.server = server;
+  }
+
+  /** 0 turns either off; connections already open are checked against the new values. */
+  void setTimeouts(long heartbeatMillis, long idleMillis) {
+    this.heartbeatMillis = Math.max(0, heartbeatMillis);
+    this.idleMillis = Math.max(0, idleMillis);
+    for (Watch watch : watches.values()) schedule(watch, 0);
+  }
+
+  long heartbeatMillis() { return heartbeatMillis; }
+
+  long idleMillis() { return idleMillis; }
+
+  void watch(ClientSession client) {
+    Watch watch = new Watch(client);
+    watches.put(client, watch);
+    long timeout = timeoutFor(watch);
+    if (timeout > 0) schedule(watch, timeout);
+  }
+
+  void forget(ClientSession client) {
+    Watch watch = watches.remove(client);
+    if (watch != null && watch.timer != null) watch.timer.cancel();
+  }
+
+  /** Something arrived from client; the hot path, so only a timestamp. */
+  void heard(ClientSession client) {
+    Watch watch = watches.get(client);
+    if (watch != null) watch.lastHeard = System.currentTimeMillis();
+  }
+
+  /** client sent a heartbeat: hold it to the heartbeat timeout from now on. */
+  void heartbeat(ClientSession client) {
+    Watch watch = watches.get(client);
+    if (watch == null || watch.heartbeats) return;
+    watch.heartbeats = true;
+    schedule(watch, 0);
+  }
+
+  private long timeoutFor(Watch watch) {
+    return watch.heartbeats ? heartbeatMillis : idleMillis;
+  }
+
+  private void schedule(Watch watch, long delayMillis) {
+    synchronized (watch) {
+      TimingWheel.Timer old = watch.timer;
+      if (old != null) old.cancel();
+      watch.timer = wheel.schedule(() -> check(watch), delayMillis);
+    }
+  }
+
+  /** On the wheel thread. */
+  private void check(Watch watch) {
+    if (watches.get(watch.client) != watch) return;
+    long timeout = timeoutFor(watch);
+    if (timeout == 0) return; // until setTimeouts or heartbeat schedules it again
+    long quiet = System.currentTimeMillis() - watch.lastHeard;
+    if (quiet < timeout) {
+      schedule(watch, timeout - quiet);
+      return;
+    }
+    forget(watch.client);
+    reaped.increment();
+    String id = (String) watch.client.getInfo("loginId");
+    ServerLog.info(((id != null) ? id : "Client " + watch.client) + " was silent for "
+        + TimeUnit.MILLISECONDS.toSeconds(quiet) + " s" + (watch.heartbeats ? " (no heartbeat)" : "")
+        + "; closing.");
+    // the peer is presumably gone: do not wait to write it anything
+    server.writers().execute(() -> {
+      try { watch.client.abort(); } catch (Exception ignore) {}
+    });
+  }
+
+  /** One line for the #timeouts console command. */
+  String report() {
+    return "Timeouts: heartbeat " + seconds(heartbeatMillis) + ", idle " + seconds(idleMillis)
+        + "; " + watches.size() + " connections watched, " + reaped.sum() + " closed";
+  }
+
+  private static String seconds(long millis) {
+    return (millis == 0) ? "off" : TimeUnit.MILLISECONDS.toSeconds(millis) + " s";
+  }
+
+  void stop() { wheel.stop(); }
+}
@@ -0,0 +1,93 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative values (HdrHistogram's layout with
+ * 4 bits of precision): exact below 16, then 16 buckets per power of two,
+ * so a reported percentile is within 1/16 (6.25%) of the true value across
+ * the whole long range. Recording is one atomic increment into a fixed
+ * array and never allocates; readers see a consistent-enough copy.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS; // up to Long.MAX_VALUE
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  public void record(long value) {
+    counts.incrementAndGet(indexOf(Math.max(0, value)));
+  }
+
+  /** A frozen copy to compute percentiles from. */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+    return new Snapshot(copy);
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /** Smallest value that lands in bucket index. */
+  static long lowestIn(int index) {
+    int shift = index / SUB_BUCKETS - 1;
+    int sub = index % SUB_BUCKETS;
+    return (shift < 0) ? sub : (long) (SUB_BUCKETS + sub) << shift;
+  }
+
+  /** Largest value that lands in bucket index. */
+  static long highestIn(int index) {
+    return (index + 1 < BUCKETS) ? lowestIn(index + 1) - 1 : Long.MAX_VALUE;
+  }
+
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long total;
+
+    private Snapshot(long[] counts) {
+      this.counts = counts;
+      long sum = 0;
+      for (long c : counts) sum += c;
+      this.total = sum;
+    }
+
+    public long count() { return total; }
+
+    /** Value at or below which fraction q (0..1) of the recorded values fall; 0 if empty. */
+    public long percentile(double q) {
+      if (total == 0) return 0;
+      long rank = Math.max(1, (long) Math.ceil(q * total));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) return highestIn(i);
+      }
+      return highestIn(counts.length - 1);
+    }
+
+    public long max() {
+      for (int i = counts.length - 1; i >= 0; i--) {
+        if (counts[i] > 0) return highestIn(i);
+      }
+      return 0;
+    }
+
+    public double mean() {
+      if (total == 0) return 0;
+      double sum = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) sum += counts[i] * ((lowestIn(i) + (double) highestIn(i)) / 2);
+      }
+      return sum / total;
+    }
+  }
+}
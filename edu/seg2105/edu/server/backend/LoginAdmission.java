@@ -0,0 +1,83 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for logins: a token bucket (RateLimiter's) that every
+ * #login and #resume must take a token from. Over the rate, a login waits
+ * for its token if that is at most maxQueueMillis away; further over, it
+ * is shed: the client is told when to try again and disconnected, and no
+ * token is taken.
+ *
+ * What a storm of reconnects costs (registry claims, history replays,
+ * resume journals) then arrives at a rate the server chose. Shed clients
+ * are handed retry times one token interval apart, so they come back
+ * spread over the time the bucket needs to take them all, not at once.
+ */
+public final class LoginAdmission {
+  public static final long DEFAULT_MAX_QUEUE_MILLIS = 2000;
+  /** Longest retry-after a shed client is given, however long the line. */
+  public static final long MAX_RETRY_MILLIS = 30_000;
+
+  private final RateLimiter.Bucket bucket = new RateLimiter.Bucket(System.nanoTime());
+  private final AtomicLong nextRetry = new AtomicLong(System.nanoTime()); // slot handed to the next shed login
+  private volatile RateLimiter.Limit limit = RateLimiter.Limit.NONE;
+  private volatile long maxQueueMillis = DEFAULT_MAX_QUEUE_MILLIS;
+
+  final LongAdder admitted = new LongAdder();
+  final LongAdder queued = new LongAdder();
+  final LongAdder shed = new LongAdder();
+
+  /** Logins per second with a burst allowance; Limit.NONE admits everything. */
+  public void setLimit(RateLimiter.Limit limit) { this.limit = limit; }
+
+  public RateLimiter.Limit limit() { return limit; }
+
+  /** Longest a login may wait for its token before it is shed instead (0: never wait). */
+  public void setMaxQueueMillis(long maxQueueMillis) { this.maxQueueMillis = Math.max(0, maxQueueMillis); }
+
+  public long maxQueueMillis() { return maxQueueMillis; }
+
+  /**
+   * Checks one login. Returns 0 if it may go ahead now; a positive number
+   * of milliseconds it is to wait, its token already taken; or, negated,
+   * the milliseconds after which a shed login should retry.
+   */
+  long admit() {
+    RateLimiter.Limit current = limit;
+    long now = System.nanoTime();
+    long wait = bucket.waitNanos(current, now);
+    if (wait > TimeUnit.MILLISECONDS.toNanos(maxQueueMillis)) {
+      shed.increment();
+      return -retryAfterMillis(current, now + wait);
+    }
+    // as in RateLimiter.acquire, a login racing this one may make it wait a little
+    long taken = bucket.take(current, now);
+    if (taken == 0) {
+      admitted.increment();
+      return 0;
+    }
+    queued.increment();
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(taken + 999_999));
+  }
+
+  /** The next free retry slot at or after earliest; each shed login gets its own. */
+  private long retryAfterMillis(RateLimiter.Limit current, long earliest) {
+    long slot;
+    while (true) {
+      long next = nextRetry.get();
+      slot = (next - earliest > 0) ? next : earliest;
+      if (nextRetry.compareAndSet(next, slot + current.intervalNanos)) break;
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(slot - System.nanoTime() + 999_999);
+    return Math.max(1, Math.min(millis, MAX_RETRY_MILLIS));
+  }
+
+  /** One line for the #admission console command. */
+  public String report() {
+    return "Login admission: " + limit + ", queue up to " + maxQueueMillis + " ms; " + admitted.sum()
+        + " admitted, " + queued.sum() + " queued, " + shed.sum() + " shed";
+  }
+}
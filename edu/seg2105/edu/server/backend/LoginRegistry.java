@@ -0,0 +1,43 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-wide login id -> session map. Claiming an id is one putIfAbsent,
+ * so two connections racing for the same id cannot both win, and finding
+ * a user is a hash lookup instead of a walk over every connection.
+ */
+public final class LoginRegistry {
+  private final Map<String, ClientSession> users = new ConcurrentHashMap<>();
+
+  /** Claims loginId for session; false if another session already holds it. */
+  public boolean register(String loginId, ClientSession session) {
+    ClientSession holder = users.putIfAbsent(loginId, session);
+    return holder == null || holder == session;
+  }
+
+  /** Releases loginId only if session still holds it (a late disconnect can't evict a newer login). */
+  public boolean unregister(String loginId, ClientSession session) {
+    return users.remove(loginId, session);
+  }
+
+  /** The session logged in as loginId, or null. */
+  public ClientSession find(String loginId) {
+    return users.get(loginId);
+  }
+
+  /** Every login id held now, sorted. */
+  public List<String> ids() {
+    List<String> ids = new ArrayList<>(users.keySet());
+    Collections.sort(ids);
+    return ids;
+  }
+
+  public int size() {
+    return users.size();
+  }
+}
@@ -0,0 +1,372 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only record of every relayed message, in fixed-size
+ * memory-mapped segment files (journal-<first seq>.log).
+ *
+ * append() only numbers the message and hands it to the journal's writer
+ * thread, so relaying never waits for the disk. The writer copies each
+ * batch into the mapped segment and forces it once per batch (group
+ * commit): everything appended while the previous force ran is made
+ * durable by the next one. With a sync interval, forces are spaced at
+ * least that far apart instead.
+ *
+ * Record layout: int length, int CRC32 of the body, then the body: long
+ * seq, long timestamp, and sender, room and payload as int-length-prefixed
+ * UTF-8. The length is written last, so a torn record reads as the end of
+ * the journal; a zero length is the end of a segment's data.
+ */
+public final class MessageJournal implements AutoCloseable {
+  public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+  /** Room for the largest message a client can send (see SerializedStrings). */
+  public static final int MIN_SEGMENT_BYTES = 4 << 20;
+  /** Appends waiting for the writer before append() blocks. */
+  public static final int MAX_PENDING = 64 * 1024;
+
+  private static final int HEADER = 8; // length + crc
+  private static final String PREFIX = "journal-";
+  private static final String SUFFIX = ".log";
+
+  /** One journaled message. */
+  public static final class Entry {
+    public final long seq;
+    public final long timestamp;
+    public final String sender;
+    public final String room;
+    public final String payload;
+
+    Entry(long seq, long timestamp, String sender, String room, String payload) {
+      this.seq = seq;
+      this.timestamp = timestamp;
+      this.sender = sender;
+      this.room = room;
+      this.payload = payload;
+    }
+  }
+
+  private final File dir;
+  private final int segmentBytes;
+  private final long syncIntervalNanos;
+  private final Thread writer;
+
+  // producer side, guarded by lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition hasWork = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition synced = lock.newCondition();
+  private List<Entry> pending = new ArrayList<>();
+  private long lastSeq;
+  private boolean writerWaiting;
+  private boolean closing;
+
+  // writer side
+  private final CRC32 crc = new CRC32();
+  private List<Entry> batch = new ArrayList<>();
+  private FileChannel segmentFile;
+  private MappedByteBuffer segment;
+  private long lastForce;
+  private long lastWritten;
+  private volatile long durableSeq;
+  private volatile long forces;
+  private volatile IOException failure;
+
+  /**
+   * Opens (or creates) the journal in dir, continuing after the last intact
+   * record. syncIntervalMillis 0 forces after every batch.
+   */
+  public MessageJournal(File dir, int segmentBytes, long syncIntervalMillis) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+    this.dir = dir;
+    this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, syncIntervalMillis));
+    recover();
+    this.durableSeq = lastSeq;
+    this.writer = new Thread(this::writeLoop, "journal-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  // ================== Producer side ==================
+  /**
+   * Numbers the message and queues it for the writer; returns its sequence
+   * number. Blocks only if MAX_PENDING appends are already waiting.
+   */
+  public long append(String sender, String room, String payload) throws IOException {
+    long now = System.currentTimeMillis();
+    lock.lock();
+    try {
+      if (failure != null) throw failure;
+      if (closing) throw new IOException("journal closed");
+      while (pending.size() >= MAX_PENDING && !closing) notFull.awaitUninterruptibly();
+      long seq = ++lastSeq;
+      pending.add(new Entry(seq, now, sender, room, payload));
+      if (writerWaiting) {
+        writerWaiting = false;
+        hasWork.signal();
+      }
+      return seq;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Highest sequence number handed out so far. */
+  public long lastSeq() {
+    lock.lock();
+    try {
+      return lastSeq;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Highest sequence number known to be on disk. */
+  public long durableSeq() { return durableSeq; }
+
+  /** How many times the writer has forced a segment to disk. */
+  public long forces() { return forces; }
+
+  /** Waits until seq is on disk; false on timeout. */
+  public boolean awaitDurable(long seq, long timeoutMillis) throws InterruptedException {
+    long left = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    lock.lock();
+    try {
+      while (durableSeq < seq) {
+        if (left <= 0 || failure != null) return false;
+        left = synced.awaitNanos(left);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Writes and forces everything appended so far, then stops the writer. */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closing = true;
+      hasWork.signal();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try { writer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+  }
+
+  // ================== Writer side ==================
+  private void writeLoop() {
+    while (true) {
+      boolean stopping;
+      lock.lock();
+      try {
+        while (pending.isEmpty() && !closing) {
+          writerWaiting = true;
+          if (syncIntervalNanos > 0 && durableSeq < lastSeq) {
+            hasWork.awaitNanos(syncIntervalNanos); // wake to force a quiet tail
+            break;
+          }
+          hasWork.awaitUninterruptibly();
+        }
+        writerWaiting = false;
+        List<Entry> full = pending;
+        pending = batch;
+        batch = full;
+        notFull.signalAll();
+        stopping = closing;
+        if (batch.isEmpty() && stopping && durableSeq == lastSeq) break;
+      } catch (InterruptedException e) {
+        continue; // only close() stops the writer
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        for (Entry entry : batch) write(entry);
+        long written = batch.isEmpty() ? lastWritten : batch.get(batch.size() - 1).seq;
+        lastWritten = written;
+        batch.clear();
+        if (syncIntervalNanos == 0 || stopping || System.nanoTime() - lastForce >= syncIntervalNanos) {
+          force(written);
+        }
+      } catch (IOException | RuntimeException e) {
+        failed(e instanceof IOException ? (IOException) e : new IOException(e));
+        return;
+      }
+    }
+    closeSegment();
+  }
+
+  private void write(Entry entry) throws IOException {
+    byte[] sender = utf8(entry.sender);
+    byte[] room = utf8(entry.room);
+    byte[] payload = utf8(entry.payload);
+    int body = 16 + 12 + sender.length + room.length + payload.length;
+    if (HEADER + body + 4 > segmentBytes) {
+      ServerLog.warn("Journal: message " + entry.seq + " is larger than a segment; not stored.");
+      return;
+    }
+    if (segment == null || segment.remaining() < HEADER + body + 4) roll(entry.seq);
+
+    int start = segment.position();
+    segment.position(start + HEADER);
+    segment.putLong(entry.seq).putLong(entry.timestamp);
+    segment.putInt(sender.length).put(sender);
+    segment.putInt(room.length).put(room);
+    segment.putInt(payload.length).put(payload);
+
+    ByteBuffer written = segment.duplicate();
+    written.position(start + HEADER).limit(start + HEADER + body);
+    crc.reset();
+    crc.update(written);
+    segment.putInt(start + 4, (int) crc.getValue());
+    segment.putInt(start, body); // last: makes the record visible to a reader
+  }
+
+  private void force(long written) {
+    if (segment != null && written > durableSeq) {
+      segment.force();
+      forces++;
+    }
+    lastForce = System.nanoTime();
+    lock.lock();
+    try {
+      durableSeq = Math.max(durableSeq, written);
+      synced.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Forces and leaves the full segment; the next starts at firstSeq. */
+  private void roll(long firstSeq) throws IOException {
+    if (segment != null) {
+      segment.force();
+      forces++;
+      closeSegment();
+    }
+    open(new File(dir, segmentName(firstSeq)), 0);
+  }
+
+  private void open(File file, int position) throws IOException {
+    segmentFile = new RandomAccessFile(file, "rw").getChannel();
+    long size = Math.max(segmentBytes, segmentFile.size()); // an older, larger segment keeps its size
+    segment = segmentFile.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    segment.position(position);
+  }
+
+  private void closeSegment() {
+    if (segment != null) segment.force();
+    try { if (segmentFile != null) segmentFile.close(); } catch (IOException ignore) {}
+    segment = null;
+    segmentFile = null;
+  }
+
+  private void failed(IOException e) {
+    ServerLog.warn("Journal write failed: " + e.getMessage());
+    lock.lock();
+    try {
+      failure = e;
+      synced.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // ================== Recovery and reading ==================
+  /** Picks up after the last intact record of the newest segment. */
+  private void recover() throws IOException {
+    File[] segments = segments(dir);
+    if (segments.length == 0) return;
+    File newest = segments[segments.length - 1];
+    long[] end = scan(newest, Long.MAX_VALUE, null); // {position, last seq}
+    open(newest, (int) end[0]);
+    lastSeq = (end[1] > 0) ? end[1] : firstSeqOf(newest) - 1;
+    // clear any torn tail so it can never be mistaken for data
+    int capacity = segment.capacity();
+    for (int i = (int) end[0]; i < capacity; i += 8) {
+      if (capacity - i >= 8) segment.putLong(i, 0L);
+      else for (int j = i; j < capacity; j++) segment.put(j, (byte) 0);
+    }
+    segment.force();
+  }
+
+  /** Calls sink for every durable-or-written record with seq > afterSeq, in order. */
+  public void replay(long afterSeq, Consumer<Entry> sink) throws IOException {
+    for (File file : segments(dir)) {
+      scan(file, afterSeq, sink);
+    }
+  }
+
+  /** Reads file's records; returns {end position, last seq}. */
+  private long[] scan(File file, long afterSeq, Consumer<Entry> sink) throws IOException {
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CRC32 check = new CRC32();
+      long last = 0;
+      while (data.remaining() >= HEADER) {
+        int start = data.position();
+        int length = data.getInt(start);
+        if (length <= 0 || length > data.remaining() - HEADER) break;
+        ByteBuffer body = data.duplicate();
+        body.position(start + HEADER).limit(start + HEADER + length);
+        check.reset();
+        check.update(body.duplicate());
+        if ((int) check.getValue() != data.getInt(start + 4)) break;
+
+        long seq = body.getLong();
+        long timestamp = body.getLong();
+        last = seq;
+        if (sink != null && seq > afterSeq) {
+          sink.accept(new Entry(seq, timestamp, string(body), string(body), string(body)));
+        }
+        data.position(start + HEADER + length);
+      }
+      return new long[] { data.position(), last };
+    }
+  }
+
+  private static File[] segments(File dir) {
+    File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+    if (files == null) return new File[0];
+    Arrays.sort(files); // zero-padded names sort by first seq
+    return files;
+  }
+
+  private static String segmentName(long firstSeq) {
+    return String.format("%s%020d%s", PREFIX, firstSeq, SUFFIX);
+  }
+
+  private static long firstSeqOf(File segment) {
+    String name = segment.getName();
+    return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+  }
+
+  private static String string(ByteBuffer body) {
+    byte[] bytes = new byte[body.getInt()];
+    body.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] utf8(String s) {
+    return (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,305 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.StreamDecoder;
+import edu.seg2105.client.common.WriteBatching;
+
+/**
+ * A client connection owned by one NioServerEngine event loop. Reads,
+ * writes and the final socket close happen on that loop; sendToClient and
+ * close may be called from any thread and only queue work for it. Output
+ * waits in a bounded OutboundQueue; up to MAX_GATHER entries at a time move
+ * into the gather array, where a partly written buffer stays until the
+ * socket takes the rest.
+ */
+final class NioClientSession implements ClientSession {
+  private static final int MAX_GATHER = 64;
+
+  private final NioServerEngine engine;
+  private final NioServerEngine.EventLoop loop;
+  private final SocketChannel channel;
+  private final String description;
+  private final Map<String, Object> info = new ConcurrentHashMap<>();
+  private final OutboundQueue<ByteBuffer> outbound;
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER]; // loop thread only
+  private int inFlight; // entries of gather not yet fully written
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final AtomicInteger unflushedBytes = new AtomicInteger();
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  private SelectionKey key;
+  private StreamDecoder decoder = new SerializedStrings.Decoder(); // loop thread only
+  private boolean framed; // guarded by this: flips together with the upgrade reply
+  private FrameCompression compression; // guarded by this; null: none negotiated
+  private boolean paused; // loop thread only: a delayed message holds back the rest
+
+  NioClientSession(NioServerEngine engine, NioServerEngine.EventLoop loop, SocketChannel channel)
+      throws IOException {
+    this.engine = engine;
+    this.loop = loop;
+    this.channel = channel;
+    InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+    this.description = remote.getHostString() + " (" + remote.getAddress().getHostAddress() + ")";
+    this.outbound = engine.server().newOutboundQueue();
+    outbound.offer(ByteBuffer.wrap(SerializedStrings.STREAM_HEADER));
+  }
+
+  void attachKey(SelectionKey key) {
+    this.key = key;
+    flush(); // stream header
+  }
+
+  // ================== ClientSession ==================
+  @Override
+  public Object getInfo(String infoType) { return info.get(infoType); }
+
+  @Override
+  public void setInfo(String infoType, Object value) {
+    if (value == null) info.remove(infoType);
+    else info.put(infoType, value);
+  }
+
+  @Override
+  public void sendToClient(Object msg) throws IOException {
+    if (closed.get()) throw new SocketException("socket does not exist");
+    if (!(msg instanceof String)) {
+      throw new NotSerializableException(msg == null ? "null" : msg.getClass().getName());
+    }
+    String text = (String) msg;
+    int queued;
+    synchronized (this) {
+      queued = enqueue(encode(text));
+    }
+    afterEnqueue(queued, 1);
+  }
+
+  @Override
+  public void send(OutboundMessage msg) throws IOException {
+    if (closed.get()) throw new SocketException("socket does not exist");
+    int queued;
+    synchronized (this) {
+      queued = enqueue(framed ? msg.view(compression) : msg.view(false));
+    }
+    afterEnqueue(queued, 1);
+  }
+
+  @Override
+  public void sendAll(List<OutboundMessage> msgs) throws IOException {
+    if (msgs.isEmpty()) return;
+    if (closed.get()) throw new SocketException("socket does not exist");
+    int queued;
+    synchronized (this) {
+      byte[] batch = OutboundMessage.concat(msgs, framed);
+      queued = enqueue(ByteBuffer.wrap(compression == null ? batch : compression.compress(batch)));
+    }
+    afterEnqueue(queued, msgs.size());
+  }
+
+  @Override
+  public int queuedMessages() { return outbound.size(); }
+
+  private synchronized ByteBuffer encode(String text) {
+    if (!framed) return ByteBuffer.wrap(SerializedStrings.encode(text));
+    byte[] frame = FrameCodec.encode(text);
+    return ByteBuffer.wrap(compression == null ? frame : compression.compress(frame));
+  }
+
+  /**
+   * Caller holds this, so queue order matches encoding order. Returns the
+   * bytes queued, or -1 on overflow.
+   */
+  private int enqueue(ByteBuffer bytes) {
+    int size = bytes.remaining();
+    if (outbound.offer(bytes) != OutboundQueue.Offer.OVERFLOW) return size;
+    // too far behind: replace the backlog with the reason we are leaving
+    outbound.clear();
+    outbound.offer(encode(EchoServer.SLOW_CONSUMER_NOTICE));
+    return -1;
+  }
+
+  /** Outside the monitor: close() fires server hooks, which take their own locks. */
+  private void afterEnqueue(int queued, int messages) throws IOException {
+    if (queued >= 0) {
+      engine.server().metrics().messagesOut.add(messages);
+      scheduleFlush(queued);
+    } else {
+      close();
+    }
+  }
+
+  /** Like OCSF: fires clientDisconnected now; queued output still goes out first. */
+  @Override
+  public void close() throws IOException {
+    if (!closed.compareAndSet(false, true)) return;
+    loop.execute(this::flush);
+    engine.closed(this);
+  }
+
+  /** Like close, but the socket goes without waiting for the peer to take what is queued. */
+  @Override
+  public void abort() throws IOException {
+    if (!closed.compareAndSet(false, true)) return;
+    loop.execute(this::closeChannel);
+    engine.closed(this);
+  }
+
+  @Override
+  public String toString() { return description; }
+
+  // ================== Event-loop side ==================
+  /**
+   * The first message after a flush arms one for the end of the batching
+   * window; the message that fills the byte budget flushes at once.
+   */
+  private void scheduleFlush(int bytes) {
+    WriteBatching batching = engine.server().writeBatching();
+    int before = unflushedBytes.getAndAdd(bytes);
+    if (before < batching.byteBudget() && before + bytes >= batching.byteBudget()) {
+      loop.execute(this::flush);
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      if (batching.isImmediate()) loop.execute(this::flush);
+      else loop.schedule(this::flush, batching.windowMillis());
+    }
+  }
+
+  /** Gathering write of everything queued; re-arms OP_WRITE if the socket is full. */
+  void flush() {
+    flushScheduled.set(false);
+    unflushedBytes.set(0);
+    if (key == null || !channel.isOpen()) return;
+    try {
+      while (true) {
+        if (inFlight < MAX_GATHER) {
+          long skipped = outbound.takeSkipped();
+          if (skipped > 0) gather[inFlight++] = encode(engine.server().skippedNotice(skipped));
+          inFlight += outbound.drainTo(gather, inFlight, MAX_GATHER - inFlight);
+        }
+        if (inFlight == 0) break;
+        engine.server().metrics().bytesOut.add(channel.write(gather, 0, inFlight));
+        int done = 0;
+        while (done < inFlight && !gather[done].hasRemaining()) done++;
+        System.arraycopy(gather, done, gather, 0, inFlight - done);
+        Arrays.fill(gather, inFlight - done, inFlight, null);
+        inFlight -= done;
+        if (inFlight > 0) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      if (closed.get()) closeChannel();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  void onReadable(ByteBuffer scratch) {
+    try {
+      scratch.clear();
+      int n = channel.read(scratch);
+      if (n < 0) {
+        fail(new EOFException());
+        return;
+      }
+      if (closed.get()) return; // closing: drop anything still arriving
+      engine.server().metrics().bytesIn.add(n);
+      scratch.flip();
+
+      decode(decoder.append(scratch));
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  /** Delivers every whole message in in, until a delay pauses reading; keeps the rest. */
+  private void decode(ByteBuffer in) throws IOException {
+    String msg;
+    while (!closed.get() && !paused && (msg = decoder.next(in)) != null) {
+      if (!framed && FrameCodec.isUpgradeRequest(msg)) upgradeToFrames(msg);
+      else engine.deliver(msg, this);
+    }
+    decoder.carry(in);
+  }
+
+  /** Runs on the loop, which must not sleep: stop reading instead, and come back for msg. */
+  @Override
+  public boolean delay(Object msg, long delayMillis) {
+    pauseReading();
+    loop.schedule(() -> resumeReading(msg), delayMillis);
+    return false;
+  }
+
+  /** As delay, coming back for msg on the loop once done completes. */
+  @Override
+  public boolean await(Object msg, CompletableFuture<?> done) {
+    if (done.isDone()) return true;
+    pauseReading();
+    done.whenComplete((result, failure) -> loop.execute(() -> resumeReading(msg)));
+    return false;
+  }
+
+  private void pauseReading() {
+    paused = true;
+    if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+  }
+
+  private void resumeReading(Object delayed) {
+    paused = false;
+    if (closed.get()) return;
+    engine.server().handleDelayed(delayed, this);
+    try {
+      decode(decoder.append(ByteBuffer.allocate(0))); // what arrived with or before it
+      if (!paused && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Acknowledge in the old format, naming the compression picked from the
+   * request's offers; everything after it, both ways, is frames.
+   */
+  private void upgradeToFrames(String request) throws IOException {
+    FrameCompression picked = engine.server().negotiateCompression(request);
+    int queued;
+    synchronized (this) {
+      queued = enqueue(encode(EchoServer.upgradeReply(picked)));
+      framed = true;
+      compression = picked;
+    }
+    afterEnqueue(queued, 1);
+    decoder = new FrameCodec.Decoder(picked);
+  }
+
+  /** Peer went away or broke the protocol: OCSF reports this as clientException. */
+  private void fail(Throwable cause) {
+    boolean first = closed.compareAndSet(false, true);
+    closeChannel();
+    if (first) engine.failed(this, cause);
+  }
+
+  private void closeChannel() {
+    outbound.clear();
+    Arrays.fill(gather, null);
+    inFlight = 0;
+    if (key != null) key.cancel();
+    try { channel.close(); } catch (IOException ignore) {}
+  }
+}
@@ -0,0 +1,348 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based alternative to OCSF's thread-per-client server. A small,
+ * fixed pool of event loops multiplexes every socket; each connection is
+ * owned by one loop, and the EchoServer hooks (clientConnected,
+ * handleMessageFromClient, clientDisconnected, clientException) run on it.
+ *
+ * Speaks the same Java-serialization stream as an OCSF client, so
+ * unmodified ChatClients connect to it exactly as before.
+ *
+ * With setAcceptors(n), n loops accept: on n sockets bound to the same
+ * port with SO_REUSEPORT, so the kernel spreads new connections between
+ * them, or, where the platform lacks it, on one socket registered with n
+ * selectors. Either way a reconnect storm no longer queues behind one
+ * loop's accept.
+ */
+public class NioServerEngine implements ServerEngine {
+  static final int BACKLOG = 1024;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final EchoServer server;
+  private final int loopCount;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final Set<NioClientSession> sessions = ConcurrentHashMap.newKeySet();
+
+  private int port;
+  private EventLoop[] loops;
+  private int acceptors = 1;
+  private List<ServerSocketChannel> acceptChannels; // null while not listening
+
+  public NioServerEngine(EchoServer server, int port, int loopCount) {
+    this.server = server;
+    this.port = port;
+    this.loopCount = Math.max(1, loopCount);
+    server.attachEngine(this);
+  }
+
+  /** Default pool size: a few loops are plenty; more only adds contention. */
+  public static int defaultLoopCount() {
+    return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /** Loops that accept connections, at most one per loop; applies from the next listen(). */
+  public synchronized void setAcceptors(int acceptors) {
+    this.acceptors = Math.max(1, Math.min(acceptors, loopCount));
+  }
+
+  public synchronized int getAcceptors() { return acceptors; }
+
+  // ================== ServerEngine ==================
+  @Override
+  public synchronized void listen() throws IOException {
+    if (isListening()) return;
+    if (loops == null) startLoops();
+
+    boolean reusePort = acceptors > 1 && reusePortSupported();
+    List<ServerSocketChannel> channels = new ArrayList<>();
+    try {
+      for (int i = 0; i < (reusePort ? acceptors : 1); i++) channels.add(bind(reusePort));
+    } catch (IOException e) {
+      for (ServerSocketChannel channel : channels) {
+        try { channel.close(); } catch (IOException ignore) {}
+      }
+      throw e;
+    }
+    acceptChannels = channels;
+    EventLoop[] group = loops;
+    for (int i = 0; i < acceptors; i++) {
+      // one socket per acceptor, or all acceptors on the one socket
+      ServerSocketChannel channel = channels.get(reusePort ? i : 0);
+      EventLoop loop = group[i];
+      loop.execute(() -> loop.register(channel, SelectionKey.OP_ACCEPT, group));
+    }
+    if (acceptors > 1) {
+      ServerLog.info(acceptors + " acceptors on port " + port
+          + (reusePort ? " (SO_REUSEPORT)" : " (sharing one socket)"));
+    }
+    server.serverStarted();
+  }
+
+  private ServerSocketChannel bind(boolean reusePort) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      if (reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      channel.bind(new InetSocketAddress(port), BACKLOG);
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /** True if listening sockets here can share a port (Linux, the BSDs, macOS). */
+  static boolean reusePortSupported() {
+    try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+      return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public synchronized void stopListening() {
+    if (acceptChannels == null) return;
+    for (ServerSocketChannel channel : acceptChannels) {
+      try { channel.close(); } catch (IOException ignore) {}
+    }
+    acceptChannels = null;
+    // a socket is only released once every selector it is registered with deregisters it
+    if (loops != null) {
+      for (EventLoop loop : loops) loop.wakeup();
+    }
+    server.serverStopped();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (loops == null) return;
+    stopListening();
+    for (NioClientSession session : sessions) {
+      try { session.close(); } catch (Exception ignore) {}
+    }
+    // loops drain their queued flushes/closes before exiting
+    for (EventLoop loop : loops) loop.shutdown();
+    loops = null;
+    server.serverClosed();
+  }
+
+  @Override
+  public synchronized boolean isListening() { return acceptChannels != null; }
+
+  @Override
+  public synchronized int getPort() { return port; }
+
+  @Override
+  public synchronized void setPort(int port) { this.port = port; }
+
+  @Override
+  public int getNumberOfClients() { return sessions.size(); }
+
+  // ================== Connection plumbing ==================
+  private void startLoops() throws IOException {
+    EventLoop[] started = new EventLoop[loopCount];
+    for (int i = 0; i < loopCount; i++) {
+      started[i] = new EventLoop("nio-loop-" + i);
+      started[i].thread.start();
+    }
+    loops = started;
+  }
+
+  private void accept(ServerSocketChannel channel, EventLoop[] owners) {
+    SocketChannel client;
+    try {
+      while ((client = channel.accept()) != null) {
+        EventLoop owner = owners[Math.floorMod(nextLoop.getAndIncrement(), owners.length)];
+        SocketChannel accepted = client;
+        owner.execute(() -> attach(accepted, owner));
+      }
+    } catch (IOException ignore) {
+      // channel closed by stopListening, or a transient failure (e.g. out of
+      // descriptors); either way the next select decides
+    }
+  }
+
+  private void attach(SocketChannel channel, EventLoop loop) {
+    NioClientSession session;
+    try {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // sessions batch their own writes
+      session = new NioClientSession(this, loop, channel);
+      SelectionKey key = loop.register(channel, SelectionKey.OP_READ, session);
+      if (key == null) throw new IOException("channel closed before registration");
+      session.attachKey(key);
+    } catch (IOException e) {
+      try { channel.close(); } catch (IOException ignore) {}
+      return;
+    }
+    sessions.add(session);
+    server.clientConnected(session);
+  }
+
+  EchoServer server() { return server; }
+
+  void deliver(String msg, NioClientSession session) {
+    server.handleMessageFromClient(msg, session);
+  }
+
+  void closed(NioClientSession session) {
+    if (sessions.remove(session)) server.clientDisconnected(session);
+  }
+
+  void failed(NioClientSession session, Throwable cause) {
+    if (sessions.remove(session)) server.clientException(session, cause);
+  }
+
+  /** One selector and the thread that spins it. */
+  final class EventLoop implements Runnable {
+    final Thread thread;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // loop thread only
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, name);
+    }
+
+    /** Queues task for the loop; one wakeup covers every task queued while it sleeps. */
+    void execute(Runnable task) {
+      tasks.add(task);
+      if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+        selector.wakeup();
+      }
+    }
+
+    /** Runs task on the loop after at least delayMillis. */
+    void schedule(Runnable task, long delayMillis) {
+      long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+      execute(() -> timers.add(new Timer(due, task)));
+    }
+
+    void wakeup() {
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      execute(() -> running = false);
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, Object attachment) {
+      try {
+        return channel.register(selector, ops, attachment);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          wakeupPending.set(false);
+          // tasks queued by this loop itself (e.g. attach after accept) must not wait for I/O
+          long wait = tasks.isEmpty() ? millisUntilNextTimer() : 0;
+          if (wait < 0) selector.select();
+          else if (wait == 0) selector.selectNow();
+          else selector.select(wait);
+        } catch (IOException e) {
+          break;
+        }
+        runTasks();
+        runTimers();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          try {
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+              accept((ServerSocketChannel) key.channel(), (EventLoop[]) key.attachment());
+              continue;
+            }
+            NioClientSession session = (NioClientSession) key.attachment();
+            if (key.isReadable()) session.onReadable(readBuffer);
+            if (key.isValid() && key.isWritable()) session.flush();
+          } catch (CancelledKeyException ignore) {}
+        }
+      }
+      runTasks();
+      for (SelectionKey key : selector.keys()) {
+        try { key.channel().close(); } catch (IOException ignore) {}
+      }
+      try { selector.close(); } catch (IOException ignore) {}
+    }
+
+    /** -1 if no timer is pending, else whole milliseconds (rounded up) until the first. */
+    private long millisUntilNextTimer() {
+      Timer next = timers.peek();
+      if (next == null) return -1;
+      long nanos = next.due - System.nanoTime();
+      return (nanos <= 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos + 999_999);
+    }
+
+    private void runTimers() {
+      long now = System.nanoTime();
+      while (!timers.isEmpty() && timers.peek().due - now <= 0) {
+        try {
+          timers.poll().task.run();
+        } catch (RuntimeException e) {
+          ServerLog.warn("Event loop timer failed: " + e);
+        }
+      }
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          ServerLog.warn("Event loop task failed: " + e);
+        }
+      }
+    }
+  }
+
+  /** A delayed loop task (see EventLoop.schedule). */
+  private static final class Timer implements Comparable<Timer> {
+    final long due;
+    final Runnable task;
+
+    Timer(long due, Runnable task) {
+      this.due = due;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Timer other) { return Long.compare(due - other.due, 0); }
+  }
+}
@@ -0,0 +1,132 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ocsf.server.ConnectionToClient;
+
+/**
+ * ClientSession view of an OCSF ConnectionToClient. sendToClient only
+ * queues; a pooled writer makes the blocking OCSF call, so a stalled
+ * client cannot hold up a broadcast to everyone else.
+ *
+ * OCSF hands over every client's messages under the server's lock, so
+ * this session must not block in delay or await: instead it holds the
+ * client's later messages back itself until the wait is over.
+ */
+final class OcsfClientSession extends QueuedClientSession<String> {
+  private final EchoServer server;
+  private final ConnectionToClient connection;
+  // not OCSF's savedInfo: a plain HashMap, and broadcasts read these from other threads
+  private final Map<String, Object> info = new ConcurrentHashMap<>();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final ArrayDeque<Object> held = new ArrayDeque<>(); // guarded by this
+  private boolean holding; // guarded by this: later messages go into held
+  private boolean waiting; // guarded by this: an await has not completed
+
+  OcsfClientSession(EchoServer server, ConnectionToClient connection) {
+    super(server);
+    this.server = server;
+    this.connection = connection;
+  }
+
+  @Override
+  public boolean delay(Object msg, long delayMillis) {
+    holdBack();
+    // the timer only hands over: release takes the server's lock
+    server.timers().schedule(() -> server.writers().execute(() -> release(msg)), delayMillis,
+        TimeUnit.MILLISECONDS);
+    return false;
+  }
+
+  @Override
+  public boolean await(Object msg, CompletableFuture<?> done) {
+    if (done.isDone()) return true;
+    holdBack();
+    done.whenComplete((result, failure) -> server.writers().execute(() -> release(msg)));
+    return false;
+  }
+
+  private synchronized void holdBack() {
+    holding = true;
+    waiting = true;
+  }
+
+  /** True if msg arrived during a delay or await and is to be handled after it. */
+  synchronized boolean hold(Object msg) {
+    if (!holding) return false;
+    held.addLast(msg);
+    return true;
+  }
+
+  /**
+   * The wait is over: msg, then whatever was held, under the server's
+   * lock as OCSF would; stops early if one of them waits in turn.
+   */
+  private void release(Object msg) {
+    synchronized (server) {
+      synchronized (this) {
+        waiting = false;
+      }
+      server.handleDelayed(msg, this);
+      while (true) {
+        Object next;
+        synchronized (this) {
+          if (waiting) return; // that wait's release carries on from here
+          next = held.pollFirst();
+          if (next == null) {
+            holding = false;
+            return;
+          }
+        }
+        server.handleMessageFromClient(next, this);
+      }
+    }
+  }
+
+  @Override
+  public Object getInfo(String infoType) { return info.get(infoType); }
+
+  @Override
+  public void setInfo(String infoType, Object value) {
+    if (value == null) info.remove(infoType);
+    else info.put(infoType, value);
+  }
+
+  @Override
+  public void sendToClient(Object msg) throws IOException {
+    if (!enqueue(String.valueOf(msg))) close();
+  }
+
+  /** OCSF fires clientDisconnected when the writer finally closes the connection. */
+  @Override
+  public void close() throws IOException { beginClose(); }
+
+  @Override
+  public String toString() { return String.valueOf(connection); }
+
+  @Override
+  protected void write(String msg) throws IOException { connection.sendToClient(msg); }
+
+  /** OCSF flushes every message itself; a window here only delays, it cannot merge writes. */
+  @Override
+  protected int sizeOf(String msg) { return msg.length(); }
+
+  @Override
+  protected String notice(String text) { return text; }
+
+  @Override
+  protected void closeNow() {
+    if (!closed.compareAndSet(false, true)) return;
+    try { connection.close(); } catch (IOException ignore) {}
+  }
+
+  /** OCSF's reader thread notices the dead peer and reports it. */
+  @Override
+  protected void writeFailed(IOException cause) {}
+}
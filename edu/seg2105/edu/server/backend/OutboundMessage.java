@@ -0,0 +1,129 @@
+package edu.seg2105.edu.server.backend;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.SequenceTag;
+
+/**
+ * One message on its way to any number of clients, encoded at most once
+ * per wire format no matter how many recipients it has. Sessions that
+ * write through a channel get a read-only view of one shared direct
+ * buffer; stream sessions write the shared byte array.
+ *
+ * Room and whisper lines carry a sequence number; clients that resume get
+ * the tagged() copy, which caches its own encodings the same way.
+ *
+ * Framed sessions that negotiated compression share one compressed frame
+ * too. Only the last mode asked for is kept, which is all of them while
+ * clients offer the same modes.
+ */
+public final class OutboundMessage {
+  private final String text;
+  private final long seq; // 0: not sequenced
+  private volatile OutboundMessage tagged;
+
+  // racy single-check caches: a lost race only encodes twice
+  private volatile byte[] serialized;
+  private volatile byte[] framed;
+  private volatile ByteBuffer serializedBuffer;
+  private volatile ByteBuffer framedBuffer;
+  private volatile Compressed compressed;
+
+  private static final class Compressed {
+    final String mode;
+    final byte[] bytes;
+    volatile ByteBuffer buffer;
+
+    Compressed(String mode, byte[] bytes) {
+      this.mode = mode;
+      this.bytes = bytes;
+    }
+  }
+
+  public OutboundMessage(String text) {
+    this(text, 0);
+  }
+
+  public OutboundMessage(String text, long seq) {
+    this.text = text;
+    this.seq = seq;
+  }
+
+  public String text() { return text; }
+
+  public long seq() { return seq; }
+
+  /** The "#seq n" form for resuming clients; this message itself if unsequenced. */
+  OutboundMessage tagged() {
+    if (seq == 0) return this;
+    OutboundMessage t = tagged;
+    if (t == null) tagged = t = new OutboundMessage(SequenceTag.tag(seq, text));
+    return t;
+  }
+
+  byte[] bytes(boolean frames) {
+    if (frames) {
+      byte[] b = framed;
+      if (b == null) framed = b = FrameCodec.encode(text);
+      return b;
+    }
+    byte[] b = serialized;
+    if (b == null) serialized = b = SerializedStrings.encode(text);
+    return b;
+  }
+
+  /** The frame for a session using compression (null: none), compressed if that is worth it. */
+  byte[] bytes(FrameCompression compression) {
+    byte[] frame = bytes(true);
+    if (compression == null || !compression.worthCompressing(frame.length)) return frame;
+    return compressed(compression).bytes;
+  }
+
+  private Compressed compressed(FrameCompression compression) {
+    Compressed c = compressed;
+    if (c == null || !c.mode.equals(compression.mode())) {
+      compressed = c = new Compressed(compression.mode(), compression.compress(bytes(true)));
+    }
+    return c;
+  }
+
+  /** A fresh read-only view for one recipient; position and limit are its own. */
+  ByteBuffer view(boolean frames) {
+    ByteBuffer shared = frames ? framedBuffer : serializedBuffer;
+    if (shared == null) {
+      shared = direct(bytes(frames));
+      if (frames) framedBuffer = shared;
+      else serializedBuffer = shared;
+    }
+    return shared.duplicate();
+  }
+
+  ByteBuffer view(FrameCompression compression) {
+    if (compression == null || !compression.worthCompressing(bytes(true).length)) return view(true);
+    Compressed c = compressed(compression);
+    ByteBuffer shared = c.buffer;
+    if (shared == null) c.buffer = shared = direct(c.bytes);
+    return shared.duplicate();
+  }
+
+  private static ByteBuffer direct(byte[] b) {
+    return ByteBuffer.allocateDirect(b.length).put(b).flip().asReadOnlyBuffer();
+  }
+
+  /** msgs back to back in one array, so a batch goes out in one write. */
+  static byte[] concat(List<OutboundMessage> msgs, boolean frames) {
+    int length = 0;
+    for (OutboundMessage msg : msgs) length += msg.bytes(frames).length;
+    byte[] out = new byte[length];
+    int at = 0;
+    for (OutboundMessage msg : msgs) {
+      byte[] b = msg.bytes(frames);
+      System.arraycopy(b, 0, out, at, b.length);
+      at += b.length;
+    }
+    return out;
+  }
+}
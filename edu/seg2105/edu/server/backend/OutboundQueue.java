@@ -0,0 +1,121 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of messages waiting for one client's socket. Any
+ * thread may offer; a single writer drains. When full, the policy decides
+ * between dropping the oldest entry and reporting an overflow for the
+ * caller to disconnect on. Uses a ReentrantLock, not a monitor, so a
+ * virtual-thread writer never pins its carrier here.
+ */
+final class OutboundQueue<T> {
+  enum Offer { QUEUED, DROPPED_OLDEST, OVERFLOW }
+
+  private final Object[] ring;
+  private final SlowConsumerPolicy policy;
+  private final LongAdder drops;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private int head;
+  private int size;
+  private long skipped; // drops not yet reported to the client (COALESCE)
+
+  OutboundQueue(int capacity, SlowConsumerPolicy policy, LongAdder drops) {
+    this.ring = new Object[Math.max(1, capacity)];
+    this.policy = policy;
+    this.drops = drops;
+  }
+
+  Offer offer(T item) {
+    lock.lock();
+    try {
+      Offer result = Offer.QUEUED;
+      if (size == ring.length) {
+        if (policy == SlowConsumerPolicy.DISCONNECT) return Offer.OVERFLOW;
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        drops.increment();
+        if (policy == SlowConsumerPolicy.COALESCE) skipped++;
+        result = Offer.DROPPED_OLDEST;
+      }
+      ring[(head + size) % ring.length] = item;
+      size++;
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  T poll() {
+    lock.lock();
+    try {
+      if (size == 0) return null;
+      T item = (T) ring[head];
+      ring[head] = null;
+      head = (head + 1) % ring.length;
+      size--;
+      return item;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Moves up to max entries into dst starting at offset; returns how many. */
+  int drainTo(Object[] dst, int offset, int max) {
+    lock.lock();
+    try {
+      int n = Math.min(max, size);
+      for (int i = 0; i < n; i++) {
+        dst[offset + i] = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+      }
+      size -= n;
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Drops the client has not been told about yet, resetting the count. */
+  long takeSkipped() {
+    lock.lock();
+    try {
+      long n = skipped;
+      skipped = 0;
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Discards everything queued (counted as drops). */
+  void clear() {
+    lock.lock();
+    try {
+      drops.add(size);
+      while (size > 0) {
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isEmpty() { return size() == 0; }
+}
@@ -0,0 +1,142 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.seg2105.client.common.Presence;
+
+/**
+ * Pushes logins and logouts to the clients that keep a roster. Changes
+ * are collected, not sent: once per interval every subscriber gets one
+ * line, encoded once for all of them, naming each login id whose state
+ * changed, and an id that went and came back within the interval is not
+ * named at all. So during a mass reconnect each subscriber gets one line
+ * a tick, not one per client that reconnected, and if more ids changed
+ * than are online, that line is a snapshot instead.
+ *
+ * New subscribers get their snapshot on the next tick too, one encoding
+ * shared by all who subscribed in that interval.
+ */
+final class PresenceFeed {
+  static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+  private static final ScheduledExecutorService TICKS =
+      Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "chat-presence");
+        t.setDaemon(true);
+        return t;
+      });
+
+  private final EchoServer server;
+  private final Set<ClientSession> subscribers = ConcurrentHashMap.newKeySet();
+  private Map<String, Boolean> pending = new LinkedHashMap<>(); // guarded by this; id -> online now
+  private Set<ClientSession> fresh = new HashSet<>(); // guarded by this; waiting for a snapshot
+  private ScheduledFuture<?> ticker; // guarded by this; null while the server is closed
+  private volatile long intervalMillis;
+
+  final LongAdder deltas = new LongAdder();
+  final LongAdder snapshots = new LongAdder();
+  final LongAdder lines = new LongAdder(); // sent, all subscribers together
+
+  PresenceFeed(EchoServer server) {
+    this.server = server;
+    this.intervalMillis = DEFAULT_INTERVAL_MILLIS;
+  }
+
+  synchronized void setInterval(long intervalMillis) {
+    this.intervalMillis = Math.max(1, intervalMillis);
+    if (ticker != null) {
+      stop();
+      start();
+    }
+  }
+
+  /** Ticks from now on; the server calls this each time it starts listening. */
+  synchronized void start() {
+    if (ticker != null) return;
+    ticker = TICKS.scheduleAtFixedRate(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** No more ticks, so a closed server is no longer held by TICKS. */
+  synchronized void stop() {
+    if (ticker == null) return;
+    ticker.cancel(false);
+    ticker = null;
+  }
+
+  long intervalMillis() { return intervalMillis; }
+
+  /** loginId logged in (online) or out; events for one id alternate. */
+  synchronized void changed(String loginId, boolean online) {
+    Boolean before = pending.get(loginId);
+    if (before == null) pending.put(loginId, online);
+    else if (before != online) pending.remove(loginId); // back as the last tick left it
+  }
+
+  synchronized void subscribe(ClientSession client) {
+    if (!subscribers.contains(client)) fresh.add(client);
+  }
+
+  synchronized void unsubscribe(ClientSession client) {
+    subscribers.remove(client);
+    fresh.remove(client);
+  }
+
+  private void tick() {
+    Map<String, Boolean> changes;
+    Set<ClientSession> joining;
+    synchronized (this) {
+      if (pending.isEmpty() && fresh.isEmpty()) return;
+      changes = pending;
+      pending = new LinkedHashMap<>();
+      joining = fresh;
+      fresh = new HashSet<>();
+      subscribers.addAll(joining); // now, so an unsubscribe from here on sticks
+    }
+    try {
+      OutboundMessage snapshot = null;
+      if (!changes.isEmpty() && !subscribers.isEmpty()) {
+        OutboundMessage update;
+        if (changes.size() > server.loggedInCount()) {
+          update = snapshot = snapshot();
+        } else {
+          update = new OutboundMessage(Presence.delta(changes));
+          deltas.increment();
+        }
+        for (ClientSession client : subscribers) {
+          if (!joining.contains(client)) send(client, update);
+        }
+      }
+      if (!joining.isEmpty()) {
+        if (snapshot == null) snapshot = snapshot();
+        for (ClientSession client : joining) send(client, snapshot);
+      }
+    } catch (RuntimeException e) {
+      ServerLog.warn("Presence update failed: " + e); // the next tick starts afresh
+    }
+  }
+
+  private OutboundMessage snapshot() {
+    snapshots.increment();
+    return new OutboundMessage(Presence.snapshot(server.onlineIds()));
+  }
+
+  private void send(ClientSession client, OutboundMessage msg) {
+    lines.increment();
+    try { client.send(msg); } catch (Exception ignore) {}
+  }
+
+  /** One line for the #presence console command. */
+  String report() {
+    return "Presence: " + subscribers.size() + " subscribers, every " + intervalMillis + " ms; " + deltas.sum()
+        + " deltas, " + snapshots.sum() + " snapshots, " + lines.sum() + " lines sent";
+  }
+}
@@ -0,0 +1,165 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.seg2105.client.common.WriteBatching;
+
+/**
+ * A session whose socket writes block, so they are taken off the caller's
+ * thread: messages go into a bounded OutboundQueue and a writer borrowed
+ * from the server's pool drains it while there is anything to drain. A
+ * slow client fills its own queue instead of stalling the broadcaster.
+ * With a batching window the writer waits that long (or until the byte
+ * budget is queued) before draining, so a burst leaves in one write.
+ *
+ * @param <T> what one queued message looks like to this kind of session
+ */
+abstract class QueuedClientSession<T> implements ClientSession {
+  private final EchoServer server;
+  private final ServerMetrics metrics;
+  private final Executor writers;
+  private final OutboundQueue<T> queue;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicInteger unflushedBytes = new AtomicInteger();
+  private volatile Thread waitingWriter; // set while the writer sits out the window
+  private volatile boolean closing;
+
+  QueuedClientSession(EchoServer server) {
+    this.server = server;
+    this.metrics = server.metrics();
+    this.writers = server.writers();
+    this.queue = server.newOutboundQueue();
+  }
+
+  /** Blocking write of one queued message. */
+  protected abstract void write(T item) throws IOException;
+
+  /** Called once the queue is drained; for sessions that buffer writes. */
+  protected void flushWrites() throws IOException {}
+
+  /** Approximate bytes item adds to a write, for the batching budget. */
+  protected abstract int sizeOf(T item);
+
+  /** Wraps a server notice so it can be queued like any other message. */
+  protected abstract T notice(String text);
+
+  /** Really closes the socket; runs after queued output has been written. */
+  protected abstract void closeNow();
+
+  /** A write failed: the peer is gone. */
+  protected abstract void writeFailed(IOException cause);
+
+  @Override
+  public int queuedMessages() { return queue.size(); }
+
+  protected final boolean isClosing() { return closing; }
+
+  protected final boolean enqueue(T item) throws IOException {
+    return enqueue(item, 1);
+  }
+
+  /**
+   * item carries this many chat messages (a replay batch carries several).
+   * False on overflow: the backlog is replaced with the reason we are
+   * leaving, and the caller must close(), once it holds no lock of its own
+   * (close fires server hooks, which take theirs).
+   */
+  protected final boolean enqueue(T item, int messages) throws IOException {
+    if (closing) throw new SocketException("socket does not exist");
+    if (queue.offer(item) == OutboundQueue.Offer.OVERFLOW) {
+      queue.clear();
+      queue.offer(notice(EchoServer.SLOW_CONSUMER_NOTICE));
+      return false;
+    }
+    metrics.messagesOut.add(messages);
+    int budget = server.writeBatching().byteBudget();
+    int size = sizeOf(item);
+    int before = unflushedBytes.getAndAdd(size);
+    if (before < budget && before + size >= budget) wakeWaitingWriter();
+    scheduleDrain();
+    return true;
+  }
+
+  /** Stops accepting messages; the socket closes once the queue is written. */
+  protected final boolean beginClose() {
+    if (closing) return false;
+    closing = true;
+    wakeWaitingWriter();
+    scheduleDrain();
+    return true;
+  }
+
+  /** A writer stuck on a dead peer's full socket is freed by the socket closing under it. */
+  @Override
+  public void abort() throws IOException {
+    queue.clear();
+    close();
+    closeNow();
+  }
+
+  /** Waits up to timeoutMillis for the writer to empty the queue. */
+  boolean awaitDrained(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (draining.get() || !queue.isEmpty()) {
+      if (System.currentTimeMillis() >= deadline) return false;
+      try { Thread.sleep(1); } catch (InterruptedException e) { return false; }
+    }
+    return true;
+  }
+
+  private void wakeWaitingWriter() {
+    Thread writer = waitingWriter;
+    if (writer != null) LockSupport.unpark(writer);
+  }
+
+  private void scheduleDrain() {
+    if (draining.compareAndSet(false, true)) {
+      try {
+        writers.execute(this::drain);
+      } catch (RuntimeException rejected) {
+        draining.set(false);
+      }
+    }
+  }
+
+  private void drain() {
+    WriteBatching batching = server.writeBatching();
+    if (!batching.isImmediate() && !closing) {
+      waitingWriter = Thread.currentThread();
+      long deadline = System.nanoTime() + batching.windowNanos();
+      long left;
+      while ((left = deadline - System.nanoTime()) > 0
+          && unflushedBytes.get() < batching.byteBudget() && !closing) {
+        LockSupport.parkNanos(left);
+      }
+      waitingWriter = null;
+    }
+    try {
+      do {
+        unflushedBytes.set(0);
+        while (true) {
+          // drops happen at the head, so the notice goes right where they were
+          long skipped = queue.takeSkipped();
+          if (skipped > 0) write(notice(server.skippedNotice(skipped)));
+          T item = queue.poll();
+          if (item == null) break;
+          write(item);
+          metrics.bytesOut.add(sizeOf(item));
+        }
+        flushWrites();
+        draining.set(false);
+        // a producer that lost the race to schedule us left work behind
+      } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+      if (closing) closeNow();
+    } catch (IOException e) {
+      draining.set(false);
+      queue.clear();
+      writeFailed(e);
+    }
+  }
+}
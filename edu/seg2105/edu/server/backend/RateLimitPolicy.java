@@ -0,0 +1,16 @@
+package edu.seg2105.edu.server.backend;
+
+/** What happens to a message that arrives over a rate limit. */
+public enum RateLimitPolicy {
+  /** Hold the client's input back until the message is within the limit. */
+  DELAY,
+  /** Discard the message; the client is told once per run of drops. */
+  DROP,
+  /** Send the client an ERROR notice and close its connection. */
+  DISCONNECT;
+
+  /** Parses "delay", "drop" or "disconnect" (any case). */
+  public static RateLimitPolicy parse(String name) {
+    return valueOf(name.trim().toUpperCase());
+  }
+}
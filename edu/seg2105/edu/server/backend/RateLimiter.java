@@ -0,0 +1,163 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets for what logged-in clients send: one per login id and one
+ * shared by everybody. A message goes through only if both have a token.
+ *
+ * Each bucket is a single AtomicLong holding the time its next token is
+ * due (the GCRA form of a token bucket), so checking one is a read and a
+ * compareAndSet, with no lock. Limits are read on every check and can be
+ * changed while clients are on; a bucket that has been idle long enough
+ * to be full is the same as a new one, which is what lets idle buckets be
+ * thrown away.
+ */
+public final class RateLimiter {
+  /** Longest a DELAY may hold a client back; further over the limit, the message is dropped. */
+  public static final long MAX_DELAY_MILLIS = 5000;
+
+  private static final int PRUNE_ABOVE = 4096;
+
+  /** Messages per second with a burst allowance; a rate of 0 is no limit. */
+  public static final class Limit {
+    public static final Limit NONE = new Limit(0, 1);
+
+    final double perSecond;
+    final int burst;
+    final long intervalNanos;   // between tokens
+    final long toleranceNanos;  // how far ahead of schedule a burst may run
+
+    public Limit(double perSecond, int burst) {
+      this.perSecond = Math.max(0, perSecond);
+      this.burst = Math.max(1, burst);
+      this.intervalNanos = (this.perSecond == 0) ? 0 : Math.max(1, (long) (1e9 / this.perSecond));
+      this.toleranceNanos = intervalNanos * (this.burst - 1);
+    }
+
+    /** "rate" or "rate:burst"; the burst defaults to one second's worth. */
+    public static Limit parse(String text) {
+      String[] parts = text.trim().split(":");
+      double rate = Double.parseDouble(parts[0]);
+      int burst = (parts.length > 1) ? Integer.parseInt(parts[1]) : (int) Math.ceil(rate);
+      return new Limit(rate, burst);
+    }
+
+    boolean unlimited() { return intervalNanos == 0; }
+
+    @Override
+    public String toString() {
+      return unlimited() ? "unlimited" : String.format("%s/s, burst %d",
+          (perSecond == Math.rint(perSecond)) ? String.valueOf((long) perSecond) : String.valueOf(perSecond),
+          burst);
+    }
+  }
+
+  /** One bucket: when its next token is due, in System.nanoTime() terms. */
+  static final class Bucket {
+    final AtomicLong due;
+    volatile boolean warned; // DROP: told the client, not yet admitted since
+
+    Bucket(long now) {
+      this.due = new AtomicLong(now);
+    }
+
+    /** Nanoseconds until a token is available under limit; 0 if one is now. */
+    long waitNanos(Limit limit, long now) {
+      if (limit.unlimited()) return 0;
+      return Math.max(0, due.get() - limit.toleranceNanos - now);
+    }
+
+    /** Takes a token, due in the returned nanoseconds (0: now). */
+    long take(Limit limit, long now) {
+      if (limit.unlimited()) return 0;
+      while (true) {
+        long current = due.get();
+        long start = (current - now > 0) ? current : now;
+        if (due.compareAndSet(current, start + limit.intervalNanos)) {
+          return Math.max(0, start - limit.toleranceNanos - now);
+        }
+      }
+    }
+  }
+
+  private final Map<String, Bucket> users = new ConcurrentHashMap<>();
+  private final Bucket global = new Bucket(System.nanoTime());
+  private volatile Limit userLimit = Limit.NONE;
+  private volatile Limit globalLimit = Limit.NONE;
+  private volatile RateLimitPolicy policy = RateLimitPolicy.DELAY;
+
+  final LongAdder delayed = new LongAdder();
+  final LongAdder dropped = new LongAdder();
+  final LongAdder disconnected = new LongAdder();
+
+  public void setUserLimit(Limit limit) { this.userLimit = limit; }
+
+  public void setGlobalLimit(Limit limit) { this.globalLimit = limit; }
+
+  public void setPolicy(RateLimitPolicy policy) { this.policy = policy; }
+
+  public Limit userLimit() { return userLimit; }
+
+  public Limit globalLimit() { return globalLimit; }
+
+  public RateLimitPolicy policy() { return policy; }
+
+  public boolean isEnabled() {
+    return !userLimit.unlimited() || !globalLimit.unlimited();
+  }
+
+  /**
+   * Checks one message from loginId. Returns 0 if it may be handled now.
+   * Otherwise returns how many nanoseconds it is over: under DELAY, if that
+   * is at most MAX_DELAY_MILLIS, the message's tokens are already taken and
+   * it is to be handled once that time has passed; in every other case
+   * nothing was taken and the message is rejected.
+   */
+  long acquire(String loginId, RateLimitPolicy policy) {
+    Limit user = userLimit, all = globalLimit;
+    if (user.unlimited() && all.unlimited()) return 0;
+    long now = System.nanoTime();
+    Bucket bucket = user.unlimited() ? null : bucket(loginId, now);
+    long wait = Math.max((bucket == null) ? 0 : bucket.waitNanos(user, now), global.waitNanos(all, now));
+    if (wait > 0 && (policy != RateLimitPolicy.DELAY || wait > TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS))) {
+      return wait;
+    }
+    // another thread may take the same token between the check and here; then this one waits a little
+    long taken = Math.max((bucket == null) ? 0 : bucket.take(user, now), global.take(all, now));
+    if (bucket != null && bucket.warned) bucket.warned = false;
+    if (taken > 0) delayed.increment();
+    return taken;
+  }
+
+  /** DROP: true the first time since loginId was last admitted, when the client should be told. */
+  boolean firstDrop(String loginId) {
+    dropped.increment();
+    Bucket bucket = users.get(loginId);
+    if (bucket == null) return true; // over the global limit only
+    if (bucket.warned) return false;
+    bucket.warned = true;
+    return true;
+  }
+
+  private Bucket bucket(String loginId, long now) {
+    Bucket bucket = users.get(loginId);
+    if (bucket != null) return bucket;
+    if (users.size() > PRUNE_ABOVE) {
+      // a bucket whose tokens are all back holds nothing a new one would not
+      users.values().removeIf(b -> b.due.get() - now <= 0 && !b.warned);
+    }
+    return users.computeIfAbsent(loginId, id -> new Bucket(now));
+  }
+
+  /** One line for the #ratelimit console command. */
+  public String report() {
+    return "Rate limits: per user " + userLimit + ", global " + globalLimit + ", over the limit "
+        + policy.name().toLowerCase() + "; " + delayed.sum() + " delayed, " + dropped.sum()
+        + " dropped, " + disconnected.sum() + " disconnected";
+  }
+}
@@ -0,0 +1,122 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Room name -> members, plus each member's rooms in join order. The room
+ * map is a ConcurrentHashMap, so joins and leaves lock only the bin of the
+ * room they touch; a room fans out over its own member set and never
+ * scans the other connections. Empty rooms are removed.
+ *
+ * A client's current room, where its plain chat lines go, is the room it
+ * joined most recently and has not left.
+ *
+ * A session's room entries change only under its own membership lock, and
+ * leaveAll marks that membership departed, so a join racing a disconnect
+ * cannot leave the session behind in a room.
+ */
+final class RoomIndex {
+  /** Everyone joins this room on login. */
+  static final String LOBBY = "lobby";
+
+  private final Map<String, Set<ClientSession>> rooms = new ConcurrentHashMap<>();
+  private final Map<ClientSession, Membership> memberships = new ConcurrentHashMap<>();
+
+  /** One session's rooms, in join order; lock it to change them. */
+  private static final class Membership {
+    final Deque<String> rooms = new ArrayDeque<>();
+    boolean departed; // leaveAll has run: joins are refused
+  }
+
+  /**
+   * Joins room (or moves it to the front) and makes it current; false if
+   * already current, or if the session has left for good.
+   */
+  boolean join(String room, ClientSession session) {
+    Membership joined = memberships.computeIfAbsent(session, s -> new Membership());
+    synchronized (joined) {
+      if (joined.departed || room.equals(joined.rooms.peekLast())) return false;
+      joined.rooms.remove(room);
+      joined.rooms.addLast(room);
+      rooms.compute(room, (name, members) -> {
+        if (members == null) members = ConcurrentHashMap.newKeySet();
+        members.add(session);
+        return members;
+      });
+    }
+    return true;
+  }
+
+  /** False if the session was not in room. */
+  boolean leave(String room, ClientSession session) {
+    Membership joined = memberships.get(session);
+    if (joined == null) return false;
+    synchronized (joined) {
+      if (!joined.rooms.remove(room)) return false;
+      removeMember(room, session);
+    }
+    return true;
+  }
+
+  /**
+   * On disconnect; returns the rooms it was in, in join order. A join
+   * that started before this is refused; one that starts after it sees
+   * no membership, so the caller must not let a closed session join.
+   */
+  List<String> leaveAll(ClientSession session) {
+    Membership joined = memberships.remove(session);
+    if (joined == null) return Collections.emptyList();
+    synchronized (joined) {
+      joined.departed = true;
+      for (String room : joined.rooms) removeMember(room, session);
+      return new ArrayList<>(joined.rooms);
+    }
+  }
+
+  /** Null if the session is in no room. */
+  String currentRoom(ClientSession session) {
+    Membership joined = memberships.get(session);
+    if (joined == null) return null;
+    synchronized (joined) {
+      return joined.rooms.peekLast();
+    }
+  }
+
+  /** Live view of room's members; empty if the room does not exist. */
+  Set<ClientSession> members(String room) {
+    Set<ClientSession> members = rooms.get(room);
+    return (members == null) ? Collections.emptySet() : members;
+  }
+
+  /** Sends msg to every member of room; returns how many members there were. */
+  int broadcast(String room, OutboundMessage msg) {
+    int sent = 0;
+    for (ClientSession member : members(room)) {
+      try { member.send(EchoServer.forSession(member, msg)); } catch (Exception ignore) {}
+      sent++;
+    }
+    return sent;
+  }
+
+  /** Room name -> member count, for the console. */
+  Map<String, Integer> sizes() {
+    Map<String, Integer> sizes = new TreeMap<>();
+    rooms.forEach((room, members) -> sizes.put(room, members.size()));
+    return sizes;
+  }
+
+  private void removeMember(String room, ClientSession session) {
+    rooms.computeIfPresent(room, (name, members) -> {
+      members.remove(session);
+      return members.isEmpty() ? null : members;
+    });
+  }
+}
@@ -0,0 +1,172 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.seg2105.client.common.StreamDecoder;
+
+/**
+ * Just enough of the Java serialization stream format to talk to an
+ * unmodified OCSF client without ObjectInput/OutputStream: the stream
+ * header, top-level Strings (TC_STRING / TC_LONGSTRING), back-references
+ * and TC_RESET. Chat only ever sends Strings, so anything else is refused.
+ */
+final class SerializedStrings {
+  static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+
+  private static final byte TC_NULL = 0x70;
+  private static final byte TC_REFERENCE = 0x71;
+  private static final byte TC_STRING = 0x74;
+  private static final byte TC_RESET = 0x79;
+  private static final byte TC_LONGSTRING = 0x7C;
+  private static final int BASE_WIRE_HANDLE = 0x7E0000;
+
+  /** Largest string accepted from a client (in modified UTF-8 bytes). */
+  static final int MAX_STRING_BYTES = 1 << 20;
+
+  private SerializedStrings() {}
+
+  /**
+   * Bytes ObjectOutputStream would emit for writeObject(text) followed by
+   * reset(), which is exactly what OCSF's sendToClient does.
+   */
+  static byte[] encode(String text) {
+    int utfLen = modifiedUtf8Length(text);
+    boolean longString = utfLen > 0xFFFF;
+    int headLen = longString ? 9 : 3;
+    ByteBuffer out = ByteBuffer.allocate(headLen + utfLen + 1);
+    if (longString) {
+      out.put(TC_LONGSTRING).putLong(utfLen);
+    } else {
+      out.put(TC_STRING).putShort((short) utfLen);
+    }
+    putModifiedUtf8(out, text);
+    out.put(TC_RESET);
+    return out.array();
+  }
+
+  static int modifiedUtf8Length(String text) {
+    int len = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) len += 1;
+      else if (c <= 0x07FF) len += 2;
+      else len += 3;
+    }
+    return len;
+  }
+
+  private static void putModifiedUtf8(ByteBuffer out, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) {
+        out.put((byte) c);
+      } else if (c <= 0x07FF) {
+        out.put((byte) (0xC0 | (c >> 6)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      } else {
+        out.put((byte) (0xE0 | (c >> 12)));
+        out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static String getModifiedUtf8(ByteBuffer in, int utfLen) throws StreamCorruptedException {
+    char[] chars = new char[utfLen];
+    int count = 0;
+    int end = in.position() + utfLen;
+    while (in.position() < end) {
+      int a = in.get() & 0xFF;
+      if (a < 0x80) {
+        chars[count++] = (char) a;
+      } else if ((a & 0xE0) == 0xC0 && in.position() < end) {
+        int b = in.get() & 0xFF;
+        chars[count++] = (char) (((a & 0x1F) << 6) | (b & 0x3F));
+      } else if ((a & 0xF0) == 0xE0 && in.position() + 1 < end) {
+        int b = in.get() & 0xFF;
+        int c = in.get() & 0xFF;
+        chars[count++] = (char) (((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+      } else {
+        throw new StreamCorruptedException("malformed modified UTF-8");
+      }
+    }
+    return new String(chars, 0, count);
+  }
+
+  /** Incremental reader for one client's stream (see StreamDecoder). */
+  static final class Decoder extends StreamDecoder {
+    private final List<String> handles = new ArrayList<>();
+    private boolean headerSeen;
+
+    Decoder() {
+      super(MAX_STRING_BYTES + 16);
+    }
+
+    @Override
+    public String next(ByteBuffer in) throws StreamCorruptedException {
+      while (true) {
+        if (!headerSeen) {
+          if (in.remaining() < STREAM_HEADER.length) return null;
+          for (byte b : STREAM_HEADER) {
+            if (in.get() != b) throw new StreamCorruptedException("invalid stream header");
+          }
+          headerSeen = true;
+        }
+        if (!in.hasRemaining()) return null;
+
+        int start = in.position();
+        switch (in.get(start)) {
+          case TC_RESET:
+            in.get();
+            handles.clear();
+            continue;
+
+          case TC_NULL: // sendToServer(null): nothing to deliver
+            in.get();
+            continue;
+
+          case TC_STRING: {
+            if (in.remaining() < 3) return null;
+            int len = in.getShort(start + 1) & 0xFFFF;
+            if (in.remaining() < 3 + len) return null;
+            in.position(start + 3);
+            return remember(getModifiedUtf8(in, len));
+          }
+
+          case TC_LONGSTRING: {
+            if (in.remaining() < 9) return null;
+            long len = in.getLong(start + 1);
+            if (len < 0 || len > MAX_STRING_BYTES) {
+              throw new StreamCorruptedException("string too long: " + len);
+            }
+            if (in.remaining() < 9 + len) return null;
+            in.position(start + 9);
+            return remember(getModifiedUtf8(in, (int) len));
+          }
+
+          case TC_REFERENCE: {
+            if (in.remaining() < 5) return null;
+            int handle = in.getInt(start + 1) - BASE_WIRE_HANDLE;
+            if (handle < 0 || handle >= handles.size()) {
+              throw new StreamCorruptedException("invalid handle");
+            }
+            in.position(start + 5);
+            return handles.get(handle);
+          }
+
+          default:
+            throw new StreamCorruptedException(
+                String.format("unsupported type code: %02X", in.get(start)));
+        }
+      }
+    }
+
+    private String remember(String s) {
+      handles.add(s);
+      return s;
+    }
+  }
+}
@@ -2,22 +2,43 @@ package edu.seg2105.edu.server.backend;
 
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+
+import edu.seg2105.client.common.CommandLine;
+import edu.seg2105.client.common.CommandTable;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.WriteBatching;
 
 public class ServerConsole {
   public static final int DEFAULT_PORT = 5555;
   private final EchoServer server;
+  private final ServerEngine engine;
+
+  private final CommandTable<ConsoleCommand> commands;
 
   public ServerConsole(int port) {
     this.server = new EchoServer(port);
+    this.engine = server;
+    this.commands = commandTable();
+  }
+
+  /** Runs the server on a non-default engine (see main's --engine option). */
+  public ServerConsole(EchoServer server, ServerEngine engine) {
+    this.server = server;
+    this.engine = engine;
+    this.commands = commandTable();
   }
 
   public void accept() {
     try {
-      server.listen();
+      engine.listen();
       // PRINT BOTH VARIANTS so any test phrase matches
-      System.out.println("Server listening for clients on port " + server.getPort());
-      System.out.println("Server listening for connections on port " + server.getPort());
+      System.out.println("Server listening for clients on port " + engine.getPort());
+      System.out.println("Server listening for connections on port " + engine.getPort());
       System.out.flush();
     } catch (Exception e) {
       System.out.println("ERROR - Could not listen for clients!");
@@ -38,68 +59,472 @@ public class ServerConsole {
     }
   }
 
-  private void handleCommand(String cmdLine) {
-    String[] parts = cmdLine.split("\\s+");
-    String cmd = parts[0].toLowerCase();
+  /** A server console command; exceptions are reported as "Command failed". */
+  @FunctionalInterface
+  private interface ConsoleCommand {
+    void run(CommandLine line) throws Exception;
+  }
 
+  private CommandTable<ConsoleCommand> commandTable() {
+    return CommandTable.<ConsoleCommand>builder()
+        .add("#quit", this::quit)
+        .add("#stop", this::stop)
+        .add("#close", line -> server.closeAllClientsWithNotice("SERVER MESSAGE> The server is closing."))
+        .add("#setport", this::setPort)
+        .add("#start", this::start)
+        .add("#stats", line -> System.out.println(server.metrics().report()))
+        .add("#queues", line -> System.out.println(server.outboundQueueReport()))
+        .add("#flush", this::flush)
+        .add("#ratelimit", this::rateLimit)
+        .add("#room", this::room)
+        .add("#rooms", this::rooms)
+        .add("#journal", this::journal)
+        .add("#peers", this::peers)
+        .add("#timeouts", this::timeouts)
+        .add("#admission", this::admission)
+        .add("#auth", this::auth)
+        .add("#presence", line -> System.out.println(server.presenceReport()))
+        .add("#who", this::who)
+        .add("#adduser", this::addUser)
+        .add("#deluser", this::deleteUser)
+        .add("#getport", line -> System.out.println("Current port: " + engine.getPort()))
+        .build();
+  }
+
+  private void handleCommand(String cmdLine) {
+    ConsoleCommand command = commands.lookup(cmdLine);
+    if (command == null) {
+      System.out.println("Unknown command: " + cmdLine);
+      return;
+    }
     try {
-      switch (cmd) {
-        case "#quit":
-          try { server.close(); } catch (Exception ignore) {}
-          System.exit(0);
-          break;
-
-        case "#stop":
-          if (server.isListening()) {
-            server.stopListening();
-          }
-          System.out.println("Server has stopped listening for connections.");
-          break;
+      command.run(CommandLine.of(cmdLine));
+    } catch (Exception e) {
+      System.out.println("Command failed: " + e.getMessage());
+    }
+  }
 
-        case "#close":
-          server.closeAllClientsWithNotice("SERVER MESSAGE> The server is closing.");
-          break;
+  private void quit(CommandLine line) {
+    try { engine.close(); } catch (Exception ignore) {}
+    if (server.cluster() != null) server.cluster().close();
+    if (server.getJournal() != null) server.getJournal().close(); // last group commit
+    ServerLog.flush(1000);
+    System.exit(0);
+  }
 
-        case "#setport":
-          if (parts.length < 2) {
-            System.out.println("Usage: #setport <port>");
-            break;
-          }
-          if (server.isListening()) {
-            System.out.println("Error: #setport only allowed when server is closed.");
-            break;
-          }
-          int newPort = Integer.parseInt(parts[1]);
-          server.setPort(newPort);
-          System.out.println("Port set to: " + server.getPort());
-          break;
-
-        case "#start":
-          if (!server.isListening()) {
-            server.listen();
-          }
-          // exact text some tests look for
-          System.out.println("Server listening for connections on port " + server.getPort());
-          break;
+  private void stop(CommandLine line) {
+    if (engine.isListening()) {
+      engine.stopListening();
+    }
+    System.out.println("Server has stopped listening for connections.");
+  }
 
-        case "#getport":
-          System.out.println("Current port: " + server.getPort());
-          break;
+  private void setPort(CommandLine line) {
+    if (line.argCount() < 1) {
+      System.out.println("Usage: #setport <port>");
+      return;
+    }
+    if (engine.isListening()) {
+      System.out.println("Error: #setport only allowed when server is closed.");
+      return;
+    }
+    int newPort = Integer.parseInt(line.arg(0));
+    engine.setPort(newPort);
+    System.out.println("Port set to: " + engine.getPort());
+  }
 
-        default:
-          System.out.println("Unknown command: " + cmdLine);
-      }
-    } catch (Exception e) {
-      System.out.println("Command failed: " + e.getMessage());
+  private void start(CommandLine line) throws IOException {
+    if (!engine.isListening()) {
+      engine.listen();
+    }
+    // exact text some tests look for
+    System.out.println("Server listening for connections on port " + engine.getPort());
+  }
+
+  /** #flush [windowMs [byteBudget]]: show or change write batching. */
+  private void flush(CommandLine line) {
+    WriteBatching current = server.writeBatching();
+    if (line.argCount() >= 1) {
+      long window = Long.parseLong(line.arg(0));
+      int budget = (line.argCount() >= 2) ? Integer.parseInt(line.arg(1)) : current.byteBudget();
+      server.setWriteBatching(new WriteBatching(window, budget));
+    }
+    System.out.println("Write batching: " + server.writeBatching());
+  }
+
+  /** #ratelimit [user|global <rate>[:burst] | policy <delay|drop|disconnect> | off] */
+  private void rateLimit(CommandLine line) {
+    RateLimiter limiter = server.rateLimiter();
+    int args = line.argCount();
+    String what = (args >= 1) ? line.arg(0) : "";
+    if (args == 1 && what.equalsIgnoreCase("off")) {
+      limiter.setUserLimit(RateLimiter.Limit.NONE);
+      limiter.setGlobalLimit(RateLimiter.Limit.NONE);
+    } else if (args == 2 && what.equalsIgnoreCase("user")) {
+      limiter.setUserLimit(RateLimiter.Limit.parse(line.arg(1)));
+    } else if (args == 2 && what.equalsIgnoreCase("global")) {
+      limiter.setGlobalLimit(RateLimiter.Limit.parse(line.arg(1)));
+    } else if (args == 2 && what.equalsIgnoreCase("policy")) {
+      limiter.setPolicy(RateLimitPolicy.parse(line.arg(1)));
+    } else if (args != 0) {
+      System.out.println("Usage: #ratelimit [user|global <msgs/s>[:burst] | policy <delay|drop|disconnect> | off]");
+      return;
+    }
+    System.out.println(limiter.report());
+  }
+
+  /** #room <room> <text>: a server message for one room only. */
+  private void room(CommandLine line) {
+    String text = line.rest(1);
+    if (text == null) {
+      System.out.println("Usage: #room <room> <message>");
+      return;
+    }
+    String payload = "SERVER MESSAGE> [" + line.arg(0) + "] " + text;
+    int members = server.broadcastServerMessage(line.arg(0), payload);
+    System.out.println(payload + " (" + members + " members)");
+  }
+
+  private void rooms(CommandLine line) {
+    Map<String, Integer> rooms = server.roomSizes();
+    if (rooms.isEmpty()) System.out.println("No rooms.");
+    rooms.forEach((room, members) -> System.out.println(room + ": " + members + " members"));
+  }
+
+  private void journal(CommandLine line) {
+    MessageJournal journal = server.getJournal();
+    if (journal == null) System.out.println("Journal is off (start with --journal=DIR).");
+    else System.out.println("Journal: last seq " + journal.lastSeq() + ", durable seq "
+        + journal.durableSeq() + ", " + journal.forces() + " forces");
+  }
+
+  /** #timeouts [heartbeat|idle <seconds>]: 0 turns one off. */
+  private void timeouts(CommandLine line) {
+    if (line.argCount() == 2 && line.arg(0).equalsIgnoreCase("heartbeat")) {
+      server.setTimeouts(seconds(line.arg(1)), server.idleTimeoutMillis());
+    } else if (line.argCount() == 2 && line.arg(0).equalsIgnoreCase("idle")) {
+      server.setTimeouts(server.heartbeatTimeoutMillis(), seconds(line.arg(1)));
+    } else if (line.argCount() != 0) {
+      System.out.println("Usage: #timeouts [heartbeat|idle <seconds>]");
+      return;
+    }
+    System.out.println(server.timeoutReport());
+  }
+
+  /** #admission [rate <logins/s>[:burst] | queue <ms> | off] */
+  private void admission(CommandLine line) {
+    LoginAdmission admission = server.admission();
+    if (line.argCount() == 1 && line.arg(0).equalsIgnoreCase("off")) {
+      admission.setLimit(RateLimiter.Limit.NONE);
+    } else if (line.argCount() == 2 && line.arg(0).equalsIgnoreCase("rate")) {
+      admission.setLimit(RateLimiter.Limit.parse(line.arg(1)));
+    } else if (line.argCount() == 2 && line.arg(0).equalsIgnoreCase("queue")) {
+      admission.setMaxQueueMillis(Long.parseLong(line.arg(1)));
+    } else if (line.argCount() != 0) {
+      System.out.println("Usage: #admission [rate <logins/s>[:burst] | queue <ms> | off]");
+      return;
+    }
+    System.out.println(admission.report());
+  }
+
+  private void who(CommandLine line) {
+    List<String> ids = server.onlineIds();
+    System.out.println("Online (" + ids.size() + "): " + String.join(", ", ids));
+  }
+
+  /** #auth [cache <seconds>]: 0 turns the verified-password cache off. */
+  private void auth(CommandLine line) {
+    CredentialVerifier verifier = server.credentials();
+    if (verifier == null) {
+      System.out.println("Passwords are off (start with --credentials=FILE).");
+      return;
+    }
+    if (line.argCount() == 2 && line.arg(0).equalsIgnoreCase("cache")) {
+      verifier.setCacheMillis(seconds(line.arg(1)));
+    } else if (line.argCount() != 0) {
+      System.out.println("Usage: #auth [cache <seconds>]");
+      return;
     }
+    System.out.println(verifier.report());
+  }
+
+  /** #adduser <loginId> <password>: adds a login or changes its password. */
+  private void addUser(CommandLine line) throws IOException {
+    CredentialVerifier verifier = server.credentials();
+    if (verifier == null) {
+      System.out.println("Passwords are off (start with --credentials=FILE).");
+      return;
+    }
+    String password = line.rest(1);
+    if (password == null) {
+      System.out.println("Usage: #adduser <loginId> <password>");
+      return;
+    }
+    boolean existed = verifier.store().contains(line.arg(0));
+    verifier.store().setPassword(line.arg(0), password);
+    verifier.forget(line.arg(0));
+    System.out.println((existed ? "Changed the password of " : "Added ") + line.arg(0) + ".");
+  }
+
+  /** #deluser <loginId>: it can no longer log in (a session already open stays). */
+  private void deleteUser(CommandLine line) throws IOException {
+    CredentialVerifier verifier = server.credentials();
+    if (verifier == null) {
+      System.out.println("Passwords are off (start with --credentials=FILE).");
+      return;
+    }
+    if (line.argCount() != 1) {
+      System.out.println("Usage: #deluser <loginId>");
+      return;
+    }
+    boolean removed = verifier.store().remove(line.arg(0));
+    verifier.forget(line.arg(0));
+    System.out.println(removed ? "Removed " + line.arg(0) + "." : "No such login: " + line.arg(0));
+  }
+
+  private static long seconds(String text) {
+    return (long) (Double.parseDouble(text) * 1000);
   }
 
+  private void peers(CommandLine line) {
+    ClusterRelay cluster = server.cluster();
+    if (cluster == null) System.out.println("Not clustered (start with --cluster-port or --peers).");
+    else System.out.println(cluster.report());
+  }
+
+  /**
+   * Usage: ServerConsole [port] [--engine=ocsf|nio|virtual] [--loops=N] [--carriers=N]
+   *                      [--queue=N] [--slow=drop-oldest|coalesce|disconnect]
+   *                      [--flush-window=MS] [--flush-bytes=N]
+   *                      [--journal=DIR] [--journal-segment-mb=N] [--journal-sync-ms=MS]
+   *                      [--history=N] [--log=FILE] [--log-level=debug|info|warn|off]
+   *                      [--log-overflow=block|drop] [--log-queue=N] [--log-roll-mb=N]
+   *                      [--log-keep=N] [--rate-user=R[:B]] [--rate-global=R[:B]]
+   *                      [--rate-policy=delay|drop|disconnect]
+   *                      [--compress=on|off] [--compress-threshold=N]
+   *                      [--node=NAME] [--cluster-port=N] [--peers=HOST:PORT,...]
+   *                      [--heartbeat-timeout=SEC] [--idle-timeout=SEC]
+   *                      [--acceptors=N] [--login-rate=R[:B]] [--login-queue-ms=MS]
+   *                      [--credentials=FILE] [--auth-threads=N] [--auth-cache-sec=SEC]
+   *                      [--presence-ms=MS]
+   * ocsf (default) is one thread per client; nio multiplexes every client
+   * over N selector loops; virtual gives each client a virtual thread,
+   * run on at most N carrier threads. --queue bounds each client's outbound
+   * queue and --slow picks what happens when it fills (default disconnect).
+   * --flush-window holds writes back up to MS milliseconds (or until
+   * --flush-bytes are queued) so bursts leave in one write; 0, the default,
+   * only merges what is already queued. --journal stores every relayed
+   * message in DIR; by default each batch is forced to disk as it is
+   * written, --journal-sync-ms spaces the forces out instead. --history
+   * replays a room's last N messages to each client that logs in to it or
+   * joins it (0 turns replay off). The counters behind #stats are also
+   * published over JMX as edu.seg2105.server:type=ServerMetrics,port=N.
+   * Server log lines are written by a background thread, to stdout or to
+   * FILE (rolled at --log-roll-mb, keeping --log-keep old files); when
+   * --log-queue lines are waiting, --log-overflow blocks or drops.
+   * --rate-user and --rate-global limit what logged-in clients send to R
+   * messages a second, in bursts of up to B (default R), per login id and
+   * all together; over the limit, --rate-policy delays the client's input
+   * (the default), drops the message or disconnects. #ratelimit shows and
+   * changes them at runtime. Framed clients that offer compression get it
+   * (unless --compress=off) for frames and replay batches of at least
+   * --compress-threshold bytes.
+   * A node started with --cluster-port accepts other nodes there; --peers
+   * lists the cluster ports of nodes to link to. Linked nodes relay room
+   * lines and whispers to each other, so clients of any node share rooms.
+   * --node names this node (default node-PORT); #peers shows the links.
+   * A client that heartbeats is closed after --heartbeat-timeout seconds
+   * without a word (default 45), any other after --idle-timeout (default
+   * 0, never); #timeouts shows and changes both.
+   * --acceptors has the nio and virtual engines accept on N loops (nio: at
+   * most one per selector loop), each with its own socket bound with
+   * SO_REUSEPORT where the platform supports it. --login-rate admits R
+   * logins a second, in bursts of up to B; a login over the rate waits up
+   * to --login-queue-ms (default 2000) for its turn, and beyond that is
+   * turned away with a hint of when to retry. #admission shows and changes
+   * both.
+   * --credentials requires a password with every login, checked against
+   * the PBKDF2 hashes in FILE (created if missing; #adduser and #deluser
+   * edit it) on --auth-threads threads (default one per core). A password
+   * that checked out is trusted for --auth-cache-sec seconds (default 30),
+   * so clients reconnecting together are not all hashed again; #auth shows
+   * the counts.
+   * Clients that keep a roster are sent who logged in and out at most once
+   * every --presence-ms milliseconds (default 1000), as one coalesced line;
+   * #presence shows the counts and #who lists who is online.
+   */
   public static void main(String[] args) {
     int port = DEFAULT_PORT;
-    if (args.length >= 1) {
-      try { port = Integer.parseInt(args[0]); } catch (NumberFormatException ignore) {}
+    String engineName = "ocsf";
+    int loops = NioServerEngine.defaultLoopCount();
+    int carriers = 0;
+    int queue = EchoServer.DEFAULT_OUTBOUND_CAPACITY;
+    SlowConsumerPolicy slow = SlowConsumerPolicy.DISCONNECT;
+    long flushWindow = 0;
+    int flushBytes = WriteBatching.DEFAULT_BYTE_BUDGET;
+    String journalDir = null;
+    int segmentMb = MessageJournal.DEFAULT_SEGMENT_BYTES >> 20;
+    long syncMs = 0;
+    int historySize = EchoServer.DEFAULT_HISTORY;
+    String logFile = null;
+    ServerLog.Level logLevel = ServerLog.Level.INFO;
+    ServerLog.Overflow logOverflow = ServerLog.Overflow.BLOCK;
+    int logQueue = ServerLog.DEFAULT_CAPACITY;
+    long logRollMb = ServerLog.DEFAULT_ROLL_BYTES >> 20;
+    int logKeep = ServerLog.DEFAULT_KEEP;
+    RateLimiter.Limit rateUser = RateLimiter.Limit.NONE;
+    RateLimiter.Limit rateGlobal = RateLimiter.Limit.NONE;
+    RateLimitPolicy ratePolicy = RateLimitPolicy.DELAY;
+    boolean compress = true;
+    int compressThreshold = FrameCompression.DEFAULT_THRESHOLD;
+    String nodeId = null;
+    int clusterPort = 0;
+    String peers = null;
+    double heartbeatTimeout = -1; // seconds; -1: the server's default
+    double idleTimeout = -1;
+    int acceptors = 1;
+    RateLimiter.Limit loginRate = RateLimiter.Limit.NONE;
+    long loginQueueMs = LoginAdmission.DEFAULT_MAX_QUEUE_MILLIS;
+    String credentialsFile = null;
+    int authThreads = CredentialVerifier.defaultThreads();
+    double authCacheSec = CredentialVerifier.DEFAULT_CACHE_MILLIS / 1000.0;
+    long presenceMs = PresenceFeed.DEFAULT_INTERVAL_MILLIS;
+    boolean portSeen = false;
+
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        int eq = arg.indexOf('=');
+        String key = (eq < 0) ? arg.substring(2) : arg.substring(2, eq);
+        String value = (eq < 0) ? "" : arg.substring(eq + 1);
+        try {
+          switch (key) {
+            case "engine": engineName = value.toLowerCase(); break;
+            case "loops":  loops = Integer.parseInt(value); break;
+            case "carriers": carriers = Integer.parseInt(value); break;
+            case "queue":  queue = Integer.parseInt(value); break;
+            case "slow":   slow = SlowConsumerPolicy.parse(value); break;
+            case "flush-window": flushWindow = Long.parseLong(value); break;
+            case "flush-bytes":  flushBytes = Integer.parseInt(value); break;
+            case "journal": journalDir = value; break;
+            case "journal-segment-mb": segmentMb = Integer.parseInt(value); break;
+            case "journal-sync-ms":    syncMs = Long.parseLong(value); break;
+            case "history": historySize = Integer.parseInt(value); break;
+            case "log":          logFile = value; break;
+            case "log-level":    logLevel = ServerLog.Level.parse(value); break;
+            case "log-overflow": logOverflow = ServerLog.Overflow.parse(value); break;
+            case "log-queue":    logQueue = Integer.parseInt(value); break;
+            case "log-roll-mb":  logRollMb = Long.parseLong(value); break;
+            case "log-keep":     logKeep = Integer.parseInt(value); break;
+            case "rate-user":    rateUser = RateLimiter.Limit.parse(value); break;
+            case "rate-global":  rateGlobal = RateLimiter.Limit.parse(value); break;
+            case "rate-policy":  ratePolicy = RateLimitPolicy.parse(value); break;
+            case "compress":
+              if (!value.equalsIgnoreCase("on") && !value.equalsIgnoreCase("off")) {
+                throw new IllegalArgumentException(value);
+              }
+              compress = value.equalsIgnoreCase("on");
+              break;
+            case "compress-threshold": compressThreshold = Integer.parseInt(value); break;
+            case "node":         nodeId = value; break;
+            case "cluster-port": clusterPort = Integer.parseInt(value); break;
+            case "peers":        peers = value; break;
+            case "heartbeat-timeout": heartbeatTimeout = Double.parseDouble(value); break;
+            case "idle-timeout":      idleTimeout = Double.parseDouble(value); break;
+            case "acceptors":      acceptors = Integer.parseInt(value); break;
+            case "login-rate":     loginRate = RateLimiter.Limit.parse(value); break;
+            case "login-queue-ms": loginQueueMs = Long.parseLong(value); break;
+            case "credentials":    credentialsFile = value; break;
+            case "auth-threads":   authThreads = Integer.parseInt(value); break;
+            case "auth-cache-sec": authCacheSec = Double.parseDouble(value); break;
+            case "presence-ms":    presenceMs = Long.parseLong(value); break;
+            default: System.out.println("Ignoring unknown option: " + arg);
+          }
+        } catch (IllegalArgumentException bad) {
+          System.out.println("Ignoring bad option: " + arg);
+        }
+      } else if (!portSeen) {
+        portSeen = true;
+        try { port = Integer.parseInt(arg); } catch (NumberFormatException ignore) {}
+      }
+    }
+
+    try {
+      ServerLog.configure(logLevel, logOverflow, logQueue,
+          (logFile == null) ? null : new File(logFile), logRollMb << 20, logKeep);
+    } catch (IOException e) {
+      System.out.println("ERROR - Could not open log " + logFile + ": " + e.getMessage());
+    }
+    VirtualThreadServerEngine.boundCarriers(carriers); // before EchoServer starts any
+    EchoServer server = new EchoServer(port);
+    server.setOutboundLimits(queue, slow);
+    server.setWriteBatching(new WriteBatching(flushWindow, flushBytes));
+    server.setHistorySize(historySize);
+    server.rateLimiter().setUserLimit(rateUser);
+    server.rateLimiter().setGlobalLimit(rateGlobal);
+    server.rateLimiter().setPolicy(ratePolicy);
+    server.setCompression(compress, compressThreshold);
+    server.setTimeouts((heartbeatTimeout < 0) ? server.heartbeatTimeoutMillis() : (long) (heartbeatTimeout * 1000),
+        (idleTimeout < 0) ? server.idleTimeoutMillis() : (long) (idleTimeout * 1000));
+    server.setPresenceInterval(presenceMs);
+    server.admission().setLimit(loginRate);
+    server.admission().setMaxQueueMillis(loginQueueMs);
+    if (credentialsFile != null) {
+      try {
+        CredentialStore store = new CredentialStore(new File(credentialsFile));
+        server.setCredentials(new CredentialVerifier(store, authThreads, CredentialVerifier.DEFAULT_QUEUE,
+            (long) (authCacheSec * 1000)));
+      } catch (IOException e) {
+        // not safe to carry on: every login id would be let in without a password
+        System.out.println("ERROR - Could not read credentials " + credentialsFile + ": " + e.getMessage());
+        System.exit(1);
+      }
+    }
+    server.metrics().registerMBean(port);
+    if (journalDir != null) {
+      try {
+        server.setJournal(new MessageJournal(new File(journalDir), segmentMb << 20, syncMs));
+      } catch (IOException e) {
+        System.out.println("ERROR - Could not open journal " + journalDir + ": " + e.getMessage());
+      }
+    }
+    if (clusterPort > 0 || peers != null) {
+      ClusterRelay cluster = new ClusterRelay(server, (nodeId != null) ? nodeId : "node-" + port);
+      server.setCluster(cluster);
+      if (clusterPort > 0) {
+        try {
+          cluster.listen(clusterPort);
+        } catch (IOException e) {
+          System.out.println("ERROR - Could not listen for peers on port " + clusterPort + ": " + e.getMessage());
+        }
+      }
+      if (peers != null) {
+        for (String peer : peers.split(",")) {
+          int colon = peer.lastIndexOf(':');
+          try {
+            cluster.connect(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim()));
+          } catch (RuntimeException bad) {
+            System.out.println("Ignoring bad peer: " + peer);
+          }
+        }
+      }
+    }
+    ServerEngine engine;
+    switch (engineName) {
+      case "nio":
+        NioServerEngine nio = new NioServerEngine(server, port, loops);
+        nio.setAcceptors(acceptors);
+        engine = nio;
+        break;
+      case "virtual":
+        VirtualThreadServerEngine virtual = new VirtualThreadServerEngine(server, port);
+        virtual.setAcceptors(acceptors);
+        engine = virtual;
+        break;
+      default:
+        if (acceptors > 1) System.out.println("--acceptors needs --engine=nio or virtual; using one.");
+        engine = server;
     }
-    new ServerConsole(port).accept();
+    new ServerConsole(server, engine).accept();
   }
 }
 
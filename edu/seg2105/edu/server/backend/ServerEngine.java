@@ -0,0 +1,26 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+
+/**
+ * The listening side of the server: what ServerConsole starts, stops and
+ * closes. EchoServer itself is the default (OCSF, one thread per client);
+ * the signatures match AbstractServer so it implements this for free.
+ */
+public interface ServerEngine {
+
+  void listen() throws IOException;
+
+  void stopListening();
+
+  /** Stops listening and disconnects every client. */
+  void close() throws IOException;
+
+  boolean isListening();
+
+  int getPort();
+
+  void setPort(int port);
+
+  int getNumberOfClients();
+}
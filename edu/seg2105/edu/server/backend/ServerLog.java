@@ -0,0 +1,248 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The server's log: what EchoServer used to print with System.out.println,
+ * in exactly the same lines, written by one background thread instead of
+ * by every client thread. Logging a line only appends it to a list under
+ * a short lock; the writer swaps the list out and writes the whole batch
+ * with one write and one flush, to stdout or a rolling file.
+ *
+ * When lines arrive faster than they can be written and capacity are
+ * waiting, BLOCK makes the logging thread wait (no line is lost) and DROP
+ * discards the line and later reports how many went missing.
+ */
+public final class ServerLog {
+  public enum Level {
+    DEBUG, INFO, WARN, OFF;
+
+    public static Level parse(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  public enum Overflow {
+    BLOCK, DROP;
+
+    public static Overflow parse(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+  public static final long DEFAULT_ROLL_BYTES = 16L << 20;
+  public static final int DEFAULT_KEEP = 5;
+
+  private static volatile Level level = Level.INFO;
+  private static volatile Overflow overflow = Overflow.BLOCK;
+  private static volatile int capacity = DEFAULT_CAPACITY;
+  private static volatile Sink sink = new StdoutSink();
+
+  private static final ReentrantLock lock = new ReentrantLock();
+  private static final Condition hasWork = lock.newCondition();
+  private static final Condition notFull = lock.newCondition();
+  private static final Condition written = lock.newCondition();
+  private static List<String> pending = new ArrayList<>();
+  private static List<String> batch = new ArrayList<>(); // writer's
+  private static long logged;        // lines accepted so far
+  private static long writtenUpTo;   // lines the writer has finished with
+  private static long dropped;       // since last reported
+  private static boolean writerWaiting;
+  private static Thread writer;
+
+  private ServerLog() {}
+
+  /** Call before the server starts; file null logs to stdout. */
+  public static void configure(Level level, Overflow overflow, int capacity, File file,
+      long rollBytes, int keep) throws IOException {
+    Sink next = (file == null) ? new StdoutSink() : new RollingFileSink(file, rollBytes, keep);
+    flush(1000);
+    ServerLog.level = level;
+    ServerLog.overflow = overflow;
+    ServerLog.capacity = Math.max(1, capacity);
+    Sink previous = sink;
+    sink = next;
+    previous.close();
+  }
+
+  public static boolean isEnabled(Level at) {
+    return at.compareTo(level) >= 0 && at != Level.OFF;
+  }
+
+  public static void debug(String line) { log(Level.DEBUG, line); }
+
+  public static void info(String line) { log(Level.INFO, line); }
+
+  public static void warn(String line) { log(Level.WARN, line); }
+
+  public static void log(Level at, String line) {
+    if (!isEnabled(at)) return;
+    lock.lock();
+    try {
+      while (pending.size() >= capacity) {
+        if (overflow == Overflow.DROP) {
+          dropped++;
+          return;
+        }
+        notFull.awaitUninterruptibly();
+      }
+      pending.add(line);
+      logged++;
+      if (writer == null) startWriter();
+      if (writerWaiting) {
+        writerWaiting = false;
+        hasWork.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Waits up to timeoutMillis for every line logged so far to be written. */
+  public static boolean flush(long timeoutMillis) {
+    long left = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    lock.lock();
+    try {
+      long target = logged;
+      while (writtenUpTo < target) {
+        if (left <= 0) return false;
+        left = written.awaitNanos(left);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // ================== Writer side ==================
+  /** Caller holds lock. */
+  private static void startWriter() {
+    writer = new Thread(ServerLog::writeLoop, "server-log");
+    writer.setDaemon(true);
+    writer.start();
+    // System.exit (#quit, a client's #quit on the same JVM) must not lose the tail
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "server-log-flush"));
+  }
+
+  private static void writeLoop() {
+    StringBuilder text = new StringBuilder();
+    while (true) {
+      long lost;
+      lock.lock();
+      try {
+        while (pending.isEmpty() && dropped == 0) {
+          writerWaiting = true;
+          hasWork.awaitUninterruptibly();
+        }
+        List<String> full = pending;
+        pending = batch;
+        batch = full;
+        lost = dropped;
+        dropped = 0;
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+      text.setLength(0);
+      for (String line : batch) text.append(line).append(System.lineSeparator());
+      if (lost > 0) text.append("Log: ").append(lost).append(" lines dropped.").append(System.lineSeparator());
+      try {
+        sink.write(text.toString().getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        System.err.println("Log write failed: " + e.getMessage());
+      }
+      int done = batch.size();
+      batch.clear();
+      lock.lock();
+      try {
+        writtenUpTo += done;
+        written.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  // ================== Sinks ==================
+  private interface Sink {
+    void write(byte[] bytes) throws IOException;
+
+    default void close() {}
+  }
+
+  /** Through System.out, so anything else printed there stays in order with the log. */
+  private static final class StdoutSink implements Sink {
+    @Override
+    public void write(byte[] bytes) {
+      System.out.write(bytes, 0, bytes.length);
+      System.out.flush();
+    }
+  }
+
+  /** file, renamed to file.1 (file.1 to file.2, ...) once it reaches rollBytes. */
+  private static final class RollingFileSink implements Sink {
+    private final File file;
+    private final long rollBytes;
+    private final int keep;
+    private OutputStream out;
+    private long size;
+
+    RollingFileSink(File file, long rollBytes, int keep) throws IOException {
+      this.file = file;
+      this.rollBytes = Math.max(1, rollBytes);
+      this.keep = Math.max(0, keep);
+      open();
+    }
+
+    private void open() throws IOException {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("cannot create " + parent);
+      }
+      out = new FileOutputStream(file, true);
+      size = file.length();
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+      if (size > 0 && size + bytes.length > rollBytes) roll();
+      out.write(bytes);
+      out.flush();
+      size += bytes.length;
+    }
+
+    private void roll() throws IOException {
+      out.close();
+      if (keep == 0) {
+        file.delete();
+      } else {
+        new File(file.getPath() + "." + keep).delete();
+        for (int i = keep - 1; i >= 1; i--) {
+          new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        file.renameTo(new File(file.getPath() + ".1"));
+      }
+      open();
+    }
+
+    @Override
+    public void close() {
+      try { out.close(); } catch (IOException ignore) {}
+    }
+  }
+}
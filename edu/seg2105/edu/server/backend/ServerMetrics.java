@@ -0,0 +1,116 @@
+package edu.seg2105.edu.server.backend;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for one EchoServer. The hot path only bumps striped LongAdders
+ * and the fan-out histogram, so recording never allocates or contends on
+ * one cache line; gauges (connections, queues) are read from the server
+ * when asked. Rates are averaged since the previous sample, taken at
+ * most once a second by whoever reads them (#stats or JMX).
+ *
+ * Bytes are what the engines read and wrote; OCSF hides its socket, so
+ * for it they are the message lengths instead.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+  private static final long SAMPLE_NANOS = 1_000_000_000L;
+
+  final LongAdder messagesIn = new LongAdder();
+  final LongAdder messagesOut = new LongAdder(); // one per recipient
+  final LongAdder bytesIn = new LongAdder();
+  final LongAdder bytesOut = new LongAdder();
+  final LongAdder loginsSucceeded = new LongAdder();
+  final LongAdder loginsFailed = new LongAdder();
+  /** Received to handed to every recipient's queue, per relayed message. */
+  final LatencyHistogram fanOutNanos = new LatencyHistogram();
+
+  private final EchoServer server;
+
+  // last sample, guarded by this
+  private long sampledAt = System.nanoTime();
+  private final long[] sampled = new long[4];
+  private final double[] rates = new double[4];
+
+  ServerMetrics(EchoServer server) {
+    this.server = server;
+  }
+
+  /** Registers this as edu.seg2105.server:type=ServerMetrics,port=N. */
+  public void registerMBean(int port) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+          new ObjectName("edu.seg2105.server:type=ServerMetrics,port=" + port));
+    } catch (JMException e) {
+      ServerLog.warn("Could not register server metrics with JMX: " + e.getMessage());
+    }
+  }
+
+  // ================== Rates ==================
+  private synchronized double rate(int which) {
+    long now = System.nanoTime();
+    long elapsed = now - sampledAt;
+    if (elapsed >= SAMPLE_NANOS) {
+      long[] totals = { messagesIn.sum(), messagesOut.sum(), bytesIn.sum(), bytesOut.sum() };
+      for (int i = 0; i < totals.length; i++) {
+        rates[i] = (totals[i] - sampled[i]) * 1e9 / elapsed;
+        sampled[i] = totals[i];
+      }
+      sampledAt = now;
+    }
+    return rates[which];
+  }
+
+  @Override public double getMessagesInPerSecond() { return rate(0); }
+  @Override public double getMessagesOutPerSecond() { return rate(1); }
+  @Override public double getBytesInPerSecond() { return rate(2); }
+  @Override public double getBytesOutPerSecond() { return rate(3); }
+
+  // ================== Counters ==================
+  @Override public long getMessagesIn() { return messagesIn.sum(); }
+  @Override public long getMessagesOut() { return messagesOut.sum(); }
+  @Override public long getBytesIn() { return bytesIn.sum(); }
+  @Override public long getBytesOut() { return bytesOut.sum(); }
+  @Override public long getLoginsSucceeded() { return loginsSucceeded.sum(); }
+  @Override public long getLoginsFailed() { return loginsFailed.sum(); }
+
+  // ================== Gauges ==================
+  @Override public int getConnections() { return server.connectionCount(); }
+  @Override public int getLoggedIn() { return server.loggedInCount(); }
+  @Override public int getQueuedMessages() { return server.queueDepths()[0]; }
+  @Override public int getDeepestQueue() { return server.queueDepths()[1]; }
+  @Override public long getDroppedMessages() { return server.outboundDrops(); }
+
+  // ================== Fan-out latency ==================
+  @Override public long getFanOutCount() { return fanOutNanos.snapshot().count(); }
+  @Override public double getFanOutP50Micros() { return micros(0.50); }
+  @Override public double getFanOutP99Micros() { return micros(0.99); }
+  @Override public double getFanOutP999Micros() { return micros(0.999); }
+  @Override public double getFanOutMaxMicros() { return fanOutNanos.snapshot().max() / 1e3; }
+  @Override public void resetFanOut() { fanOutNanos.reset(); }
+
+  private double micros(double q) {
+    return fanOutNanos.snapshot().percentile(q) / 1e3;
+  }
+
+  /** The #stats console report. */
+  public String report() {
+    int[] queues = server.queueDepths();
+    LatencyHistogram.Snapshot fanOut = fanOutNanos.snapshot();
+    return String.format(
+        "Connections: %d (%d logged in); logins %d ok, %d refused%n"
+        + "Messages: %d in (%.1f/s), %d out (%.1f/s)%n"
+        + "Bytes: %d in (%.1f KB/s), %d out (%.1f KB/s)%n"
+        + "Fan-out: %d messages, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n"
+        + "Queues: %d messages waiting (deepest %d), %d dropped",
+        getConnections(), getLoggedIn(), getLoginsSucceeded(), getLoginsFailed(),
+        getMessagesIn(), getMessagesInPerSecond(), getMessagesOut(), getMessagesOutPerSecond(),
+        getBytesIn(), getBytesInPerSecond() / 1024, getBytesOut(), getBytesOutPerSecond() / 1024,
+        fanOut.count(), fanOut.percentile(0.50) / 1e3, fanOut.percentile(0.99) / 1e3,
+        fanOut.percentile(0.999) / 1e3, fanOut.max() / 1e3,
+        queues[0], queues[1], getDroppedMessages());
+  }
+}
@@ -0,0 +1,32 @@
+package edu.seg2105.edu.server.backend;
+
+/** JMX view of ServerMetrics (standard MBean naming: class name + "MBean"). */
+public interface ServerMetricsMBean {
+  long getMessagesIn();
+  long getMessagesOut();
+  long getBytesIn();
+  long getBytesOut();
+
+  double getMessagesInPerSecond();
+  double getMessagesOutPerSecond();
+  double getBytesInPerSecond();
+  double getBytesOutPerSecond();
+
+  long getLoginsSucceeded();
+  long getLoginsFailed();
+
+  int getConnections();
+  int getLoggedIn();
+  int getQueuedMessages();
+  int getDeepestQueue();
+  long getDroppedMessages();
+
+  long getFanOutCount();
+  double getFanOutP50Micros();
+  double getFanOutP99Micros();
+  double getFanOutP999Micros();
+  double getFanOutMaxMicros();
+
+  /** Starts the fan-out histogram over. */
+  void resetFanOut();
+}
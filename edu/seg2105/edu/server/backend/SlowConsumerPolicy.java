@@ -0,0 +1,16 @@
+package edu.seg2105.edu.server.backend;
+
+/** What a client's outbound queue does when it is full. */
+public enum SlowConsumerPolicy {
+  /** Discard the oldest queued message to make room; the client is not told. */
+  DROP_OLDEST,
+  /** Discard the oldest too, but tell the client once how many it missed. */
+  COALESCE,
+  /** Send the client an ERROR notice and close its connection. */
+  DISCONNECT;
+
+  /** Parses "drop-oldest", "coalesce" or "disconnect" (any case, - or _). */
+  public static SlowConsumerPolicy parse(String name) {
+    return valueOf(name.trim().toUpperCase().replace('-', '_'));
+  }
+}
@@ -0,0 +1,231 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.FrameCompression;
+import edu.seg2105.client.common.StreamDecoder;
+
+/**
+ * A client served by a blocking read loop on its own (virtual) thread,
+ * the way OCSF's ConnectionToClient works, minus ObjectInputStream and the
+ * fixed platform thread. Writes go through the session's bounded queue and
+ * a pooled writer, so a client that stops reading only backs up itself.
+ */
+final class StreamClientSession extends QueuedClientSession<ByteBuffer> implements Runnable {
+  private static final int READ_CHUNK = 1024;
+
+  private final VirtualThreadServerEngine engine;
+  private final Socket socket;
+  private final OutputStream out;
+  private final ByteArrayOutputStream batch = new ByteArrayOutputStream(256); // writer only
+  private final String description;
+  private final Map<String, Object> info = new ConcurrentHashMap<>();
+  private final ReentrantLock encodeLock = new ReentrantLock();
+  private final AtomicBoolean socketClosed = new AtomicBoolean();
+  private boolean framed; // guarded by encodeLock: flips together with the upgrade reply
+  private FrameCompression compression; // guarded by encodeLock; null: none negotiated
+
+  StreamClientSession(VirtualThreadServerEngine engine, Socket socket) throws IOException {
+    super(engine.server());
+    this.engine = engine;
+    this.socket = socket;
+    socket.setTcpNoDelay(true); // writes are batched here instead
+    this.out = socket.getOutputStream();
+    InetSocketAddress remote = (InetSocketAddress) socket.getRemoteSocketAddress();
+    this.description = remote.getHostString() + " (" + remote.getAddress().getHostAddress() + ")";
+  }
+
+  // ================== ClientSession ==================
+  @Override
+  public Object getInfo(String infoType) { return info.get(infoType); }
+
+  @Override
+  public void setInfo(String infoType, Object value) {
+    if (value == null) info.remove(infoType);
+    else info.put(infoType, value);
+  }
+
+  @Override
+  public void sendToClient(Object msg) throws IOException {
+    if (!(msg instanceof String)) {
+      throw new NotSerializableException(msg == null ? "null" : msg.getClass().getName());
+    }
+    String text = (String) msg;
+    boolean queued;
+    encodeLock.lock();
+    try {
+      queued = enqueue(ByteBuffer.wrap(encode(text)));
+    } finally {
+      encodeLock.unlock();
+    }
+    if (!queued) close();
+  }
+
+  @Override
+  public void send(OutboundMessage msg) throws IOException {
+    boolean queued;
+    encodeLock.lock();
+    try {
+      queued = enqueue(ByteBuffer.wrap(framed ? msg.bytes(compression) : msg.bytes(false)));
+    } finally {
+      encodeLock.unlock();
+    }
+    if (!queued) close();
+  }
+
+  @Override
+  public void sendAll(List<OutboundMessage> msgs) throws IOException {
+    if (msgs.isEmpty()) return;
+    boolean queued;
+    encodeLock.lock();
+    try {
+      byte[] batch = OutboundMessage.concat(msgs, framed);
+      byte[] bytes = (compression == null) ? batch : compression.compress(batch);
+      queued = enqueue(ByteBuffer.wrap(bytes), msgs.size());
+    } finally {
+      encodeLock.unlock();
+    }
+    if (!queued) close();
+  }
+
+  /** Caller holds encodeLock. */
+  private byte[] encode(String text) {
+    if (!framed) return SerializedStrings.encode(text);
+    byte[] frame = FrameCodec.encode(text);
+    return (compression == null) ? frame : compression.compress(frame);
+  }
+
+  /**
+   * Like OCSF: fires clientDisconnected now; queued output still goes out
+   * first. Never called holding encodeLock: the hooks take the server's.
+   */
+  @Override
+  public void close() throws IOException {
+    if (beginClose()) engine.closed(this);
+  }
+
+  @Override
+  public String toString() { return description; }
+
+  // ================== Writer side ==================
+  /** Copies into the batch; only a full byte budget or the end of the drain writes. */
+  @Override
+  protected void write(ByteBuffer bytes) throws IOException {
+    int budget = engine.server().writeBatching().byteBudget();
+    if (batch.size() > 0 && batch.size() + bytes.remaining() > budget) flushWrites();
+    if (bytes.remaining() >= budget) {
+      out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    } else {
+      batch.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+    }
+  }
+
+  @Override
+  protected void flushWrites() throws IOException {
+    if (batch.size() == 0) return;
+    try {
+      batch.writeTo(out);
+    } finally {
+      batch.reset();
+    }
+  }
+
+  @Override
+  protected int sizeOf(ByteBuffer bytes) { return bytes.remaining(); }
+
+  @Override
+  protected ByteBuffer notice(String text) {
+    encodeLock.lock();
+    try {
+      return ByteBuffer.wrap(encode(text));
+    } finally {
+      encodeLock.unlock();
+    }
+  }
+
+  @Override
+  protected void closeNow() {
+    if (!socketClosed.compareAndSet(false, true)) return;
+    try { socket.close(); } catch (IOException ignore) {}
+  }
+
+  @Override
+  protected void writeFailed(IOException cause) { fail(cause); }
+
+  // ================== Read loop ==================
+  @Override
+  public void run() {
+    try {
+      enqueue(ByteBuffer.wrap(SerializedStrings.STREAM_HEADER)); // first in an empty queue: cannot overflow
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    engine.opened(this);
+
+    StreamDecoder decoder = new SerializedStrings.Decoder();
+    byte[] chunk = new byte[READ_CHUNK];
+    try {
+      InputStream in = socket.getInputStream();
+      while (!isClosing()) {
+        int n = in.read(chunk);
+        if (n < 0) throw new EOFException();
+        engine.server().metrics().bytesIn.add(n);
+        ByteBuffer buf = decoder.append(ByteBuffer.wrap(chunk, 0, n));
+        String msg;
+        while (!isClosing() && (msg = decoder.next(buf)) != null) {
+          if (decoder instanceof SerializedStrings.Decoder && FrameCodec.isUpgradeRequest(msg)) {
+            decoder = new FrameCodec.Decoder(upgradeToFrames(msg));
+          } else {
+            engine.deliver(msg, this);
+          }
+        }
+        decoder.carry(buf);
+      }
+    } catch (IOException | RuntimeException e) {
+      if (!isClosing()) fail(e);
+    }
+  }
+
+  /**
+   * Acknowledge in the old format, naming the compression picked from the
+   * request's offers; everything after it, both ways, is frames. Returns
+   * that compression, null for none.
+   */
+  private FrameCompression upgradeToFrames(String request) throws IOException {
+    FrameCompression picked;
+    boolean queued;
+    encodeLock.lock();
+    try {
+      picked = engine.server().negotiateCompression(request);
+      queued = enqueue(ByteBuffer.wrap(SerializedStrings.encode(EchoServer.upgradeReply(picked))));
+      framed = true;
+      compression = picked;
+    } finally {
+      encodeLock.unlock();
+    }
+    if (!queued) close();
+    return picked;
+  }
+
+  /** Peer went away or broke the protocol: reported as clientException, as in OCSF. */
+  private void fail(Throwable cause) {
+    boolean first = beginClose();
+    closeNow();
+    if (first) engine.failed(this, cause);
+  }
+}
@@ -0,0 +1,103 @@
+package edu.seg2105.edu.server.backend;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: a ring of slots, one per tick, each holding the
+ * timers due when the hand reaches it (or a whole number of turns later).
+ * Scheduling and cancelling are O(1) and every tick looks at one slot,
+ * so keeping a deadline for every connection costs the same per tick
+ * whether there are ten connections or a hundred thousand.
+ *
+ * One thread turns the wheel and runs the tasks, so they must be short.
+ * Timers are only as precise as the tick: a task runs on the first tick
+ * at or after its deadline.
+ */
+final class TimingWheel {
+  /** A scheduled task; cancelling it is a flag the wheel sees when it gets there. */
+  static final class Timer {
+    final Runnable task;
+    final long dueTick;
+    volatile boolean cancelled;
+    Timer next; // within its slot; wheel thread only
+
+    Timer(Runnable task, long dueTick) {
+      this.task = task;
+      this.dueTick = dueTick;
+    }
+
+    void cancel() { cancelled = true; }
+  }
+
+  private final long tickNanos;
+  private final Timer[] slots; // heads of singly linked lists
+  private final int mask;
+  private final ConcurrentLinkedQueue<Timer> added = new ConcurrentLinkedQueue<>();
+  private final Thread hand;
+  private volatile long tick; // the slot the hand visits next
+  private volatile boolean stopped;
+
+  TimingWheel(long tickMillis, int slotCount, String name) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    int size = Integer.highestOneBit(Math.max(2, slotCount) - 1) << 1;
+    this.slots = new Timer[size];
+    this.mask = size - 1;
+    this.hand = new Thread(this::turn, name);
+    hand.setDaemon(true);
+    hand.start();
+  }
+
+  long tickMillis() { return TimeUnit.NANOSECONDS.toMillis(tickNanos); }
+
+  /** Runs task on the wheel thread once delayMillis have passed. */
+  Timer schedule(Runnable task, long delayMillis) {
+    long ticks = (TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)) + tickNanos - 1) / tickNanos;
+    Timer timer = new Timer(task, tick + ticks);
+    added.add(timer);
+    return timer;
+  }
+
+  void stop() {
+    stopped = true;
+    LockSupport.unpark(hand);
+  }
+
+  private void turn() {
+    long start = System.nanoTime();
+    while (!stopped) {
+      long now = tick;
+      long wait;
+      while ((wait = start + (now + 1) * tickNanos - System.nanoTime()) > 0 && !stopped) {
+        LockSupport.parkNanos(wait);
+      }
+      for (Timer timer; (timer = added.poll()) != null; ) {
+        int slot = (int) (Math.max(timer.dueTick, now) & mask); // overdue: this tick
+        timer.next = slots[slot];
+        slots[slot] = timer;
+      }
+      expire((int) (now & mask), now);
+      tick = now + 1;
+    }
+  }
+
+  private void expire(int slot, long now) {
+    Timer kept = null;
+    for (Timer timer = slots[slot], next; timer != null; timer = next) {
+      next = timer.next;
+      if (timer.cancelled) continue;
+      if (timer.dueTick > now) { // a later turn of the wheel
+        timer.next = kept;
+        kept = timer;
+        continue;
+      }
+      try {
+        timer.task.run();
+      } catch (RuntimeException e) {
+        ServerLog.warn("Timer task failed: " + e);
+      }
+    }
+    slots[slot] = kept;
+  }
+}
@@ -0,0 +1,175 @@
+package edu.seg2105.edu.server.backend;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * OCSF's threading model (a blocking accept loop, one read loop per client)
+ * with every loop on a Java virtual thread instead of a platform thread.
+ * Idle clients cost a parked virtual thread and a small buffer, and the
+ * carriers running them are a bounded pool (see --carriers).
+ *
+ * Falls back to platform threads, with a notice, on a JDK before 21.
+ *
+ * setAcceptors(n) runs n accept loops, each on its own SO_REUSEPORT
+ * socket where the platform has it, else all on the one socket.
+ */
+public class VirtualThreadServerEngine implements ServerEngine {
+  // accept failures other than a close: 10 ms doubling to 1 s between tries
+  private static final long ACCEPT_FIRST_BACKOFF_MILLIS = 10;
+  private static final long ACCEPT_MAX_BACKOFF_MILLIS = 1_000;
+
+  private final EchoServer server;
+  private final ThreadFactory threads;
+  private final Set<StreamClientSession> sessions = ConcurrentHashMap.newKeySet();
+
+  private int port;
+  private int acceptors = 1;
+  private List<ServerSocket> serverSockets; // null while not listening
+
+  public VirtualThreadServerEngine(EchoServer server, int port) {
+    this.server = server;
+    this.port = port;
+    ThreadFactory virtual = VirtualThreads.factory("chat-vt-");
+    if (virtual == null) {
+      ServerLog.warn("Virtual threads need Java 21; using platform threads.");
+    }
+    this.threads = (virtual != null) ? virtual : VirtualThreads.platformFactory("chat-client-");
+    server.attachEngine(this);
+  }
+
+  /** Must run before the first virtual thread exists (i.e. before construction). */
+  public static void boundCarriers(int carriers) {
+    VirtualThreads.boundCarriers(carriers);
+  }
+
+  /** Accept loops; applies from the next listen(). */
+  public synchronized void setAcceptors(int acceptors) {
+    this.acceptors = Math.max(1, acceptors);
+  }
+
+  public synchronized int getAcceptors() { return acceptors; }
+
+  // ================== ServerEngine ==================
+  @Override
+  public synchronized void listen() throws IOException {
+    if (isListening()) return;
+    boolean reusePort = acceptors > 1 && NioServerEngine.reusePortSupported();
+    List<ServerSocket> sockets = new ArrayList<>();
+    try {
+      for (int i = 0; i < (reusePort ? acceptors : 1); i++) sockets.add(bind(reusePort));
+    } catch (IOException e) {
+      for (ServerSocket socket : sockets) {
+        try { socket.close(); } catch (IOException ignore) {}
+      }
+      throw e;
+    }
+    serverSockets = sockets;
+    for (int i = 0; i < acceptors; i++) {
+      ServerSocket socket = sockets.get(reusePort ? i : 0);
+      threads.newThread(() -> acceptLoop(socket)).start();
+    }
+    if (acceptors > 1) {
+      ServerLog.info(acceptors + " acceptors on port " + port
+          + (reusePort ? " (SO_REUSEPORT)" : " (sharing one socket)"));
+    }
+    server.serverStarted();
+  }
+
+  private ServerSocket bind(boolean reusePort) throws IOException {
+    ServerSocket socket = new ServerSocket();
+    try {
+      socket.setReuseAddress(true);
+      if (reusePort) socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+      socket.bind(new InetSocketAddress(port), NioServerEngine.BACKLOG);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    return socket;
+  }
+
+  @Override
+  public synchronized void stopListening() {
+    if (serverSockets == null) return;
+    for (ServerSocket socket : serverSockets) {
+      try { socket.close(); } catch (IOException ignore) {}
+    }
+    serverSockets = null;
+    server.serverStopped();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    stopListening();
+    for (StreamClientSession session : sessions) {
+      try { session.close(); } catch (Exception ignore) {}
+    }
+    server.serverClosed();
+  }
+
+  @Override
+  public synchronized boolean isListening() { return serverSockets != null; }
+
+  @Override
+  public synchronized int getPort() { return port; }
+
+  @Override
+  public synchronized void setPort(int port) { this.port = port; }
+
+  @Override
+  public int getNumberOfClients() { return sessions.size(); }
+
+  // ================== Connection plumbing ==================
+  private void acceptLoop(ServerSocket socket) {
+    long backoff = 0;
+    while (!socket.isClosed()) {
+      Socket client;
+      try {
+        client = socket.accept();
+        backoff = 0;
+      } catch (IOException e) {
+        if (socket.isClosed()) return; // stopListening
+        // e.g. out of descriptors: retrying at once would only spin
+        backoff = Math.min(Math.max(ACCEPT_FIRST_BACKOFF_MILLIS, backoff * 2), ACCEPT_MAX_BACKOFF_MILLIS);
+        ServerLog.warn("Accept on port " + socket.getLocalPort() + " failed: " + e.getMessage()
+            + "; retrying in " + backoff + " ms.");
+        try { Thread.sleep(backoff); } catch (InterruptedException stop) { return; }
+        continue;
+      }
+      try {
+        threads.newThread(new StreamClientSession(this, client)).start();
+      } catch (IOException | RuntimeException e) {
+        // reset by the peer before its session was set up: nothing else holds the socket
+        try { client.close(); } catch (IOException ignore) {}
+      }
+    }
+  }
+
+  EchoServer server() { return server; }
+
+  void opened(StreamClientSession session) {
+    sessions.add(session);
+    server.clientConnected(session);
+  }
+
+  void deliver(String msg, StreamClientSession session) {
+    server.handleMessageFromClient(msg, session);
+  }
+
+  void closed(StreamClientSession session) {
+    if (sessions.remove(session)) server.clientDisconnected(session);
+  }
+
+  void failed(StreamClientSession session, Throwable cause) {
+    if (sessions.remove(session)) server.clientException(session, cause);
+  }
+}
@@ -0,0 +1,96 @@
+package edu.seg2105.edu.server.backend;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Looks up Java 21 virtual threads reflectively, so the rest of the server
+ * still compiles and runs (on platform threads) with an older JDK.
+ */
+final class VirtualThreads {
+  private VirtualThreads() {}
+
+  /**
+   * Caps the carrier pool that runs every virtual thread. Only effective
+   * before the first virtual thread starts; an explicit -D setting wins.
+   */
+  static void boundCarriers(int carriers) {
+    if (carriers <= 0) return;
+    if (System.getProperty("jdk.virtualThreadScheduler.parallelism") == null) {
+      System.setProperty("jdk.virtualThreadScheduler.parallelism", Integer.toString(carriers));
+    }
+    if (System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null) {
+      System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", Integer.toString(carriers));
+    }
+  }
+
+  /** Factory naming its threads prefix0, prefix1, ...; null if the JDK has no virtual threads. */
+  static ThreadFactory factory(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      Method factory = builderType.getMethod("factory");
+      ThreadFactory threads = (ThreadFactory) factory.invoke(builder);
+      threads.newThread(() -> {}); // JDK 19/20 refuse here unless --enable-preview
+      return threads;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /** Plain platform threads named prefix0, prefix1, ... */
+  static ThreadFactory platformFactory(String prefix) {
+    return new ThreadFactory() {
+      private long next;
+
+      @Override
+      public synchronized Thread newThread(Runnable task) {
+        return new Thread(task, prefix + next++);
+      }
+    };
+  }
+
+  /**
+   * Runs short-lived tasks that may block on a socket: a new virtual thread
+   * each, or else a cached pool of daemon platform threads. Pool threads
+   * join the caller's thread group, never that of whichever thread happens
+   * to grow the pool (OCSF treats every thread in its client group as a
+   * ConnectionToClient).
+   */
+  static Executor blockingExecutor(String prefix) {
+    ThreadFactory virtual = factory(prefix);
+    if (virtual != null) return task -> virtual.newThread(task).start();
+    ThreadGroup group = Thread.currentThread().getThreadGroup();
+    AtomicLong next = new AtomicLong();
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), task -> {
+          Thread t = new Thread(group, task, prefix + next.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  /**
+   * One daemon platform thread for timers, in the caller's thread group like
+   * blockingExecutor's, and gone after a minute with nothing scheduled.
+   */
+  static ScheduledExecutorService scheduler(String name) {
+    ThreadGroup group = Thread.currentThread().getThreadGroup();
+    ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread t = new Thread(group, task, name);
+      t.setDaemon(true);
+      return t;
+    });
+    timers.setKeepAliveTime(60, TimeUnit.SECONDS);
+    timers.allowCoreThreadTimeOut(true);
+    return timers;
+  }
+}
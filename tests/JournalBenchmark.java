@@ -0,0 +1,103 @@
+package tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.seg2105.edu.server.backend.MessageJournal;
+
+/**
+ * Journaling throughput and the latency append() adds to the relay path.
+ * Producers append chat-sized messages at a fixed total rate (100k msgs/s
+ * by default; 0 = as fast as they can) into a fresh journal. Reports the
+ * rate achieved, append() latency percentiles, how many messages each
+ * forced write covered, and how long the tail took to become durable.
+ *
+ *   java -cp bin tests.JournalBenchmark [msgs/s] [seconds] [producers] [sync ms] [dir]
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rate = (args.length >= 1) ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = (args.length >= 2) ? Integer.parseInt(args[1]) : 5;
+        int producers = (args.length >= 3) ? Integer.parseInt(args[2]) : 4;
+        long syncMs = (args.length >= 4) ? Long.parseLong(args[3]) : 0;
+        File dir = (args.length >= 5) ? new File(args[4])
+                : Files.createTempDirectory("journal-bench").toFile();
+
+        // warm-up run, then the measured one, each in its own journal
+        run(rate, 1, producers, syncMs, new File(dir, "warmup"), false);
+        run(rate, seconds, producers, syncMs, new File(dir, "run"), true);
+        deleteTree(dir);
+    }
+
+    private static void run(int rate, int seconds, int producers, long syncMs, File dir, boolean report)
+            throws Exception {
+        MessageJournal journal = new MessageJournal(dir, MessageJournal.DEFAULT_SEGMENT_BYTES, syncMs);
+        long intervalNanos = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) * producers / rate : 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String sender = "user" + p;
+            results.add(pool.submit(() -> {
+                long[] latencies = new long[1 << 16];
+                int n = 0;
+                long next = System.nanoTime();
+                int i = 0;
+                while (true) {
+                    if (intervalNanos > 0) {
+                        next += intervalNanos;
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) LockSupport.parkNanos(wait);
+                    }
+                    long t0 = System.nanoTime();
+                    if (t0 >= end) break;
+                    journal.append(sender, "lobby", "message " + i++ + " from " + sender + ", about lunch plans");
+                    if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+                    latencies[n++] = System.nanoTime() - t0;
+                }
+                return Arrays.copyOf(latencies, n);
+            }));
+        }
+        List<long[]> all = new ArrayList<>();
+        for (Future<long[]> f : results) all.add(f.get());
+        pool.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        long last = journal.lastSeq();
+        long tailStart = System.nanoTime();
+        journal.awaitDurable(last, 10_000);
+        long tail = System.nanoTime() - tailStart;
+        long forces = journal.forces();
+        journal.close();
+        if (!report) return;
+
+        long[] merged = all.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("target %,d msgs/s, %d producers, sync %s%n",
+                rate, producers, (syncMs == 0) ? "every batch" : syncMs + " ms");
+        System.out.printf("appended %,d in %.2f s = %,.0f msgs/s%n",
+                last, elapsed / 1e9, last / (elapsed / 1e9));
+        System.out.printf("append() latency: p50 %s  p99 %s  p999 %s  max %s%n",
+                micros(merged, 0.50), micros(merged, 0.99), micros(merged, 0.999),
+                micros(merged, 1.0));
+        System.out.printf("%,d forces, %,.1f messages per force; tail durable after %.2f ms%n",
+                forces, (double) last / Math.max(1, forces), tail / 1e6);
+    }
+
+    private static String micros(long[] sorted, double q) {
+        if (sorted.length == 0) return "-";
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1);
+        return String.format("%.1f us", sorted[Math.max(0, i)] / 1e3);
+    }
+
+    private static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteTree(c);
+        f.delete();
+    }
+}
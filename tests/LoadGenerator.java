@@ -0,0 +1,530 @@
+package tests;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.seg2105.client.common.FrameCodec;
+import edu.seg2105.client.common.RetryHint;
+import edu.seg2105.client.common.StreamDecoder;
+import edu.seg2105.edu.server.backend.EchoServer;
+import edu.seg2105.edu.server.backend.LatencyHistogram;
+import edu.seg2105.edu.server.backend.NioServerEngine;
+import edu.seg2105.edu.server.backend.RateLimiter;
+import edu.seg2105.edu.server.backend.ServerEngine;
+import edu.seg2105.edu.server.backend.ServerLog;
+import edu.seg2105.edu.server.backend.VirtualThreadServerEngine;
+
+/**
+ * Headless load generator: thousands of chat clients in one JVM, speaking
+ * ChatClient's wire protocol (OCSF serialized strings, or frames after
+ * the "#wire frames" upgrade) over a few selector threads, against an
+ * in-process EchoServer or one already running (--host/--port).
+ *
+ * Profiles:
+ *   login  each client logs in, disconnects as soon as it is welcomed,
+ *          and starts over: login throughput and latency
+ *   chat   every client logs in once and chats at --rate lines/s
+ *   churn  chat, plus --churn percent of the clients reconnecting each second
+ *
+ * Every chat line carries its send time, so each copy a client receives
+ * gives a delivery latency (sender to recipient, fan-out included).
+ * Reports sent and delivered rates each second, then delivery latency
+ * percentiles and error counts. Exits 1 if there were errors.
+ *
+ *   java -cp bin:../OCSF/bin tests.LoadGenerator [--profile=chat] [--clients=1000]
+ *       [--rate=1] [--seconds=10] [--rooms=0] [--churn=5] [--wire=serialized|frames]
+ *       [--ramp=0] [--engine=nio|ocsf|virtual] [--host=H --port=P] [--loops=N]
+ *       [--acceptors=N] [--login-rate=R[:B]]
+ *
+ * --rooms=R spreads the clients over R rooms (0: everyone in the lobby,
+ * so each line fans out to every client). --ramp=N opens N connections a
+ * second instead of all at once; OCSF's accept backlog of 10 resets some
+ * of an all-at-once storm. Large --clients needs a raised
+ * descriptor limit (ulimit -n).
+ *
+ * --acceptors and --login-rate configure the in-process server as the
+ * ServerConsole options of the same names do. A login the server sheds
+ * is counted, not an error: the client comes back after the server's
+ * retry hint plus jitter, as ChatClient does.
+ */
+public class LoadGenerator {
+
+    private static final int DEFAULT_PORT = 5700;
+    private static final String MARK = "> lg ";   // "<sender>> lg <run> <nanos> <n>"
+    private static final long DRAIN_MS = 1000;
+
+    // ---------- options ----------
+    private static String profile = "chat";
+    private static int clients = 1000;
+    private static double rate = 1;
+    private static int seconds = 10;
+    private static int rooms = 0;
+    private static double churnPercent = 5;
+    private static boolean frames = false;
+    private static String engineName = "nio";
+    private static String host = null;
+    private static int port = DEFAULT_PORT;
+    private static double ramp = 0;
+    private static int loops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static int acceptors = 1;
+    private static RateLimiter.Limit loginRate = RateLimiter.Limit.NONE;
+
+    // ---------- results, shared by all loops ----------
+    private static final long RUN = ThreadLocalRandom.current().nextLong(1L << 40);
+    private static final LatencyHistogram delivery = new LatencyHistogram();
+    private static final LatencyHistogram loginLatency = new LatencyHistogram();
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder delivered = new LongAdder();
+    private static final LongAdder logins = new LongAdder();
+    private static final LongAdder reconnects = new LongAdder();
+    private static final LongAdder connectErrors = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();      // closed by the server
+    private static final LongAdder errorLines = new LongAdder();   // "ERROR..." from the server
+    private static final LongAdder shed = new LongAdder();         // logins turned away with a retry hint
+
+    private static volatile long sendUntil;
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) parse(arg);
+
+        ServerEngine engine = null;
+        if (host == null) {
+            host = "localhost";
+            // the server logs every line; that is not what we are measuring
+            ServerLog.configure(ServerLog.Level.OFF, ServerLog.Overflow.DROP, ServerLog.DEFAULT_CAPACITY,
+                    null, ServerLog.DEFAULT_ROLL_BYTES, 0);
+            EchoServer server = new EchoServer(port);
+            server.setHistorySize(0);
+            server.admission().setLimit(loginRate);
+            switch (engineName) {
+                case "ocsf":
+                    engine = server;
+                    break;
+                case "virtual":
+                    VirtualThreadServerEngine virtual = new VirtualThreadServerEngine(server, port);
+                    virtual.setAcceptors(acceptors);
+                    engine = virtual;
+                    break;
+                default:
+                    NioServerEngine nio = new NioServerEngine(server, port, NioServerEngine.defaultLoopCount());
+                    nio.setAcceptors(acceptors);
+                    engine = nio;
+            }
+            engine.listen();
+            Thread.sleep(200);
+        }
+
+        System.out.printf("profile %s, %d clients, %s wire, %s%n", profile, clients,
+                frames ? "frames" : "serialized",
+                (engine != null) ? engineName + " engine in-process" : "server " + host + ":" + port);
+        if (!profile.equals("login")) {
+            System.out.printf("%.1f lines/s per client, %s%n", rate,
+                    (rooms == 0) ? "everyone in the lobby" : rooms + " rooms");
+        }
+
+        List<Loop> workers = new ArrayList<>();
+        for (int i = 0; i < loops; i++) workers.add(new Loop(i));
+        for (int c = 0; c < clients; c++) workers.get(c % loops).clients.add(new Client(c));
+        long start = System.nanoTime();
+        sendUntil = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (Loop loop : workers) loop.start();
+
+        long[] last = new long[2];
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(1000);
+            long nowSent = sent.sum(), nowDelivered = delivered.sum();
+            System.out.printf("%3d s  sent %,9d/s  delivered %,10d/s  logins %,7d  shed %,d  errors %,d%n",
+                    s, nowSent - last[0], nowDelivered - last[1], logins.sum(), shed.sum(), errors());
+            last[0] = nowSent;
+            last[1] = nowDelivered;
+        }
+        Thread.sleep(DRAIN_MS); // let the last lines arrive
+        running = false;
+        for (Loop loop : workers) loop.join();
+        if (engine != null) engine.close();
+
+        report((System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(DRAIN_MS)) / 1e9);
+        System.exit(errors() > 0 ? 1 : 0);
+    }
+
+    private static void parse(String arg) {
+        int eq = arg.indexOf('=');
+        String key = (eq < 0) ? arg : arg.substring(0, eq);
+        String value = (eq < 0) ? "" : arg.substring(eq + 1);
+        switch (key) {
+            case "--profile": profile = value; break;
+            case "--clients": clients = Integer.parseInt(value); break;
+            case "--rate":    rate = Double.parseDouble(value); break;
+            case "--seconds": seconds = Integer.parseInt(value); break;
+            case "--rooms":   rooms = Integer.parseInt(value); break;
+            case "--churn":   churnPercent = Double.parseDouble(value); break;
+            case "--wire":    frames = value.equalsIgnoreCase("frames"); break;
+            case "--engine":  engineName = value; break;
+            case "--host":    host = value; break;
+            case "--port":    port = Integer.parseInt(value); break;
+            case "--ramp":    ramp = Double.parseDouble(value); break;
+            case "--loops":   loops = Integer.parseInt(value); break;
+            case "--acceptors":  acceptors = Integer.parseInt(value); break;
+            case "--login-rate": loginRate = RateLimiter.Limit.parse(value); break;
+            default: throw new IllegalArgumentException("unknown option " + arg);
+        }
+    }
+
+    private static long errors() {
+        return connectErrors.sum() + dropped.sum() + errorLines.sum();
+    }
+
+    private static void report(double elapsed) {
+        LatencyHistogram.Snapshot d = delivery.snapshot();
+        LatencyHistogram.Snapshot l = loginLatency.snapshot();
+        System.out.println();
+        System.out.printf("sent %,d lines (%,.0f/s), delivered %,d copies (%,.0f/s)%n",
+                sent.sum(), sent.sum() / elapsed, delivered.sum(), delivered.sum() / elapsed);
+        System.out.printf("delivery latency: p50 %s  p99 %s  p999 %s  max %s%n",
+                ms(d.percentile(0.50)), ms(d.percentile(0.99)), ms(d.percentile(0.999)), ms(d.max()));
+        System.out.printf("logins %,d (%,.0f/s), login latency p50 %s  p99 %s  max %s; reconnects %,d%n",
+                logins.sum(), logins.sum() / elapsed,
+                ms(l.percentile(0.50)), ms(l.percentile(0.99)), ms(l.max()), reconnects.sum());
+        if (shed.sum() > 0) System.out.printf("shed %,d logins, each retried after the server's hint%n", shed.sum());
+        System.out.printf("errors: %d connect, %d dropped by server, %d ERROR lines%n",
+                connectErrors.sum(), dropped.sum(), errorLines.sum());
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    // ---------- one simulated client ----------
+    private static final class Client {
+        final int index;
+        final String loginId;
+        final String room;
+        SocketChannel channel;
+        SelectionKey key;
+        StreamDecoder decoder;
+        boolean framed;           // upgrade acknowledged
+        boolean loggedIn;
+        boolean closing;          // we are the ones hanging up
+        long connectedAt;
+        long nextSend;
+        boolean queued;           // in its loop's due queue, so nextSend must not change
+        long retryAt;             // shed: when to connect again
+        int lines;
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+        Client(int index) {
+            this.index = index;
+            this.loginId = "load" + index;
+            this.room = (rooms > 0) ? "room" + (index % rooms) : null;
+        }
+    }
+
+    // ---------- a selector thread driving a share of the clients ----------
+    private static final class Loop extends Thread {
+        final List<Client> clients = new ArrayList<>();
+        private final Selector selector;
+        private final PriorityQueue<Client> due =
+                new PriorityQueue<>(Comparator.comparingLong((Client c) -> c.nextSend));
+        private final PriorityQueue<Client> retrying =
+                new PriorityQueue<>(Comparator.comparingLong((Client c) -> c.retryAt));
+        private final ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+        private final long interval = (rate > 0) ? (long) (1e9 / rate) : Long.MAX_VALUE;
+
+        Loop(int n) throws IOException {
+            super("load-" + n);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            long nextChurn = started + TimeUnit.SECONDS.toNanos(1);
+            int opened = 0;
+            try {
+                while (running) {
+                    long now = System.nanoTime();
+                    int allowed = (ramp > 0) ? (int) Math.min(clients.size(), (now - started) / 1e9 * ramp / loops + 1)
+                            : clients.size();
+                    while (opened < allowed) connect(clients.get(opened++));
+                    sendDue(now);
+                    retryDue(now);
+                    if (profile.equals("churn") && now >= nextChurn) {
+                        churn();
+                        nextChurn += TimeUnit.SECONDS.toNanos(1);
+                    }
+                    Client next = due.peek();
+                    long waitMs = (next == null) ? 100 : Math.max(0, (next.nextSend - now) / 1_000_000);
+                    if (opened < clients.size()) waitMs = Math.min(waitMs, 1);
+                    Client retry = retrying.peek();
+                    if (retry != null) waitMs = Math.min(waitMs, Math.max(0, (retry.retryAt - now) / 1_000_000));
+                    if (waitMs == 0) selector.selectNow();
+                    else selector.select(Math.min(waitMs, 100));
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Client c = (Client) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isConnectable()) finishConnect(c);
+                        if (key.isValid() && key.isWritable()) flush(c);
+                        if (key.isValid() && key.isReadable()) read(c);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                System.out.println(getName() + " failed: " + e);
+            }
+            for (Client c : clients) close(c);
+        }
+
+        private void sendDue(long now) {
+            if (profile.equals("login") || now >= sendUntil) return;
+            Client c;
+            while ((c = due.peek()) != null && c.nextSend <= now) {
+                due.poll();
+                c.queued = false;
+                if (!c.loggedIn) continue; // re-queued when it logs in again
+                try {
+                    send(c, "lg " + RUN + " " + System.nanoTime() + " " + c.lines++);
+                    sent.increment();
+                } catch (IOException e) {
+                    dropped.increment();
+                    close(c);
+                    continue;
+                }
+                c.nextSend = Math.max(c.nextSend + interval, now - interval); // no catch-up bursts
+                c.queued = true;
+                due.add(c);
+            }
+        }
+
+        private void retryDue(long now) {
+            Client c;
+            while ((c = retrying.peek()) != null && c.retryAt <= now) {
+                retrying.poll();
+                if (now < sendUntil) connect(c);
+            }
+        }
+
+        private void churn() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (Client c : clients) {
+                if (c.loggedIn && random.nextDouble() * 100 < churnPercent) {
+                    reconnects.increment();
+                    close(c);
+                    connect(c);
+                }
+            }
+        }
+
+        private void connect(Client c) {
+            c.loggedIn = false;
+            c.closing = false;
+            c.framed = false;
+            c.pending.clear();
+            c.decoder = new SerializedReader();
+            c.connectedAt = System.nanoTime();
+            try {
+                // without blocking, so a full accept backlog stalls one client, not the loop
+                c.channel = SocketChannel.open();
+                c.channel.configureBlocking(false);
+                c.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                c.pending.add(ByteBuffer.wrap(STREAM_HEADER));
+                // like FramedConnection, no reset after the upgrade request: the next byte is a frame
+                c.pending.add(ByteBuffer.wrap(frames ? serialized(FrameCodec.UPGRADE_REQUEST, false)
+                        : serialized("#login " + c.loginId, true)));
+                boolean connected = c.channel.connect(new InetSocketAddress(host, port));
+                c.key = c.channel.register(selector,
+                        connected ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, c);
+            } catch (IOException e) {
+                connectErrors.increment();
+                close(c);
+            }
+        }
+
+        private void finishConnect(Client c) {
+            try {
+                c.channel.finishConnect();
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                connectErrors.increment();
+                close(c);
+            }
+        }
+
+        private void close(Client c) {
+            c.closing = true;
+            c.loggedIn = false;
+            try { if (c.channel != null) c.channel.close(); } catch (IOException ignored) { }
+        }
+
+        private void read(Client c) {
+            SocketChannel channel = c.channel; // the login profile reconnects from handle()
+            try {
+                scratch.clear();
+                int n = channel.read(scratch);
+                if (n < 0) throw new EOFException();
+                scratch.flip();
+                ByteBuffer in = c.decoder.append(scratch);
+                String line;
+                // handle() may swap in the frame decoder; the rest of in is then frames
+                while (c.channel == channel && channel.isOpen() && (line = c.decoder.next(in)) != null) {
+                    handle(c, line);
+                }
+                if (c.channel == channel && channel.isOpen()) c.decoder.carry(in);
+            } catch (IOException e) {
+                if (c.channel != channel) return;
+                if (!c.closing && running) dropped.increment();
+                close(c);
+            }
+        }
+
+        private void handle(Client c, String line) throws IOException {
+            long now = System.nanoTime();
+            if (!c.loggedIn) {
+                long retryAfter = RetryHint.millisOf(line);
+                if (retryAfter >= 0) {
+                    shed.increment();
+                    close(c); // before the server does, so it is not counted as dropped
+                    long jittered = retryAfter + ThreadLocalRandom.current().nextLong(retryAfter / 2 + 1);
+                    c.retryAt = now + TimeUnit.MILLISECONDS.toNanos(jittered);
+                    retrying.add(c);
+                    return;
+                }
+                if (line.equals(FrameCodec.UPGRADE_REQUEST)) {
+                    c.framed = true;
+                    c.decoder = new FrameCodec.Decoder();
+                    send(c, "#login " + c.loginId);
+                    return;
+                }
+                if (line.equals(FrameCodec.UPGRADE_DECLINED)) {
+                    send(c, "#login " + c.loginId);
+                    return;
+                }
+                if (line.equals(c.loginId + " has logged on.")) {
+                    c.loggedIn = true;
+                    logins.increment();
+                    loginLatency.record(now - c.connectedAt);
+                    if (profile.equals("login")) {
+                        close(c);
+                        if (now < sendUntil) connect(c);
+                        return;
+                    }
+                    if (c.room != null) send(c, "#join " + c.room);
+                    if (!c.queued) { // a churned client may still be waiting for its turn
+                        c.nextSend = now + (long) (ThreadLocalRandom.current().nextDouble() * interval);
+                        c.queued = true;
+                        due.add(c);
+                    }
+                    return;
+                }
+            }
+            if (line.startsWith("ERROR")) {
+                errorLines.increment();
+                return;
+            }
+            int mark = line.indexOf(MARK);
+            if (mark < 0) return; // joins, notices
+            String[] fields = line.substring(mark + MARK.length()).split(" ");
+            if (fields.length < 3 || Long.parseLong(fields[0]) != RUN) return;
+            long sentAt = Long.parseLong(fields[1]);
+            if (sentAt < c.connectedAt) return; // history from before this connection
+            delivery.record(now - sentAt);
+            delivered.increment();
+        }
+
+        private void send(Client c, String text) throws IOException {
+            write(c, ByteBuffer.wrap(c.framed ? FrameCodec.encode(text) : serialized(text, true)));
+        }
+
+        private void write(Client c, ByteBuffer bytes) throws IOException {
+            if (c.pending.isEmpty() && c.channel.isConnected()) {
+                c.channel.write(bytes);
+                if (!bytes.hasRemaining()) return;
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            c.pending.add(bytes);
+        }
+
+        private void flush(Client c) {
+            try {
+                while (!c.pending.isEmpty()) {
+                    ByteBuffer head = c.pending.peek();
+                    c.channel.write(head);
+                    if (head.hasRemaining()) return;
+                    c.pending.poll();
+                }
+                c.key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                if (!c.closing && running) dropped.increment();
+                close(c);
+            }
+        }
+    }
+
+    // ---------- OCSF's wire: Java serialization of Strings ----------
+    private static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_RESET = 0x79;
+
+    /** What writeObject(text), and then reset(), put on the wire. */
+    private static byte[] serialized(String text, boolean reset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TC_STRING);
+        out.writeUTF(text); // u2 length + modified UTF-8, as serialization writes it
+        if (reset) out.writeByte(TC_RESET);
+        return bytes.toByteArray();
+    }
+
+    /** Reads the strings a server sends before (or instead of) frames. */
+    private static final class SerializedReader extends StreamDecoder {
+        private boolean headerSeen;
+
+        SerializedReader() {
+            super(FrameCodec.MAX_PAYLOAD + 16);
+        }
+
+        @Override
+        public String next(ByteBuffer in) throws StreamCorruptedException {
+            while (true) {
+                if (!headerSeen) {
+                    if (in.remaining() < STREAM_HEADER.length) return null;
+                    for (byte b : STREAM_HEADER) {
+                        if (in.get() != b) throw new StreamCorruptedException("bad stream header");
+                    }
+                    headerSeen = true;
+                }
+                if (!in.hasRemaining()) return null;
+                int start = in.position();
+                byte tc = in.get(start);
+                if (tc == TC_RESET) {
+                    in.position(start + 1);
+                    continue;
+                }
+                if (tc != TC_STRING) throw new StreamCorruptedException("unexpected type code " + tc);
+                if (in.remaining() < 3) return null;
+                int length = in.getShort(start + 1) & 0xFFFF;
+                if (in.remaining() < 3 + length) return null;
+                byte[] utf = new byte[2 + length];
+                in.position(start + 1);
+                in.get(utf);
+                // take the reset along: after "#wire frames" the next byte is a frame
+                if (in.hasRemaining() && in.get(in.position()) == TC_RESET) in.get();
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+                } catch (IOException e) {
+                    throw new StreamCorruptedException("bad string: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
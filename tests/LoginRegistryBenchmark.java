@@ -0,0 +1,143 @@
+package tests;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.seg2105.edu.server.backend.ClientSession;
+import edu.seg2105.edu.server.backend.LoginRegistry;
+
+/**
+ * Login/logout churn against LoginRegistry at 10k users, next to the scan
+ * it replaces (walk every connection's "loginId" to find a duplicate).
+ * Each thread repeatedly logs a random user out and back in, and tries a
+ * duplicate login for a user who is on; every duplicate must be refused.
+ *
+ *   java -cp bin tests.LoginRegistryBenchmark [users] [threads] [seconds]
+ */
+public class LoginRegistryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int users = (args.length >= 1) ? Integer.parseInt(args[0]) : 10_000;
+        int threads = (args.length >= 2) ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int seconds = (args.length >= 3) ? Integer.parseInt(args[2]) : 3;
+
+        System.out.printf("%d users, %d threads, %d s per run%n", users, threads, seconds);
+        System.out.printf("%-10s %14s %12s %14s%n", "index", "churn ops/s", "ns/op", "dupes refused");
+        run("scan", new ScanIndex(), users, threads, 1);       // warm-up
+        run("registry", new RegistryIndex(), users, threads, 1);
+        report("scan", run("scan", new ScanIndex(), users, threads, seconds), seconds, threads);
+        report("registry", run("registry", new RegistryIndex(), users, threads, seconds), seconds, threads);
+    }
+
+    /** The two ways of answering "is X logged in, and claim it if not". */
+    interface Index {
+        boolean login(String id, ClientSession session);
+        void logout(String id, ClientSession session);
+    }
+
+    /** What EchoServer could do before: scan every connection's loginId. */
+    static final class ScanIndex implements Index {
+        private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public synchronized boolean login(String id, ClientSession session) {
+            for (ClientSession s : sessions) {
+                if (id.equals(s.getInfo("loginId"))) return false;
+            }
+            session.setInfo("loginId", id);
+            sessions.add(session);
+            return true;
+        }
+
+        @Override
+        public void logout(String id, ClientSession session) {
+            sessions.remove(session);
+            session.setInfo("loginId", null);
+        }
+    }
+
+    static final class RegistryIndex implements Index {
+        private final LoginRegistry registry = new LoginRegistry();
+
+        @Override
+        public boolean login(String id, ClientSession session) {
+            if (!registry.register(id, session)) return false;
+            session.setInfo("loginId", id);
+            return true;
+        }
+
+        @Override
+        public void logout(String id, ClientSession session) {
+            registry.unregister(id, session);
+            session.setInfo("loginId", null);
+        }
+    }
+
+    /** {ops, duplicates refused}. */
+    private static long[] run(String name, Index index, int users, int threads, int seconds)
+            throws Exception {
+        String[] ids = new String[users];
+        FakeSession[] owners = new FakeSession[users];
+        for (int i = 0; i < users; i++) {
+            ids[i] = "user" + i;
+            owners[i] = new FakeSession();
+            if (!index.login(ids[i], owners[i])) throw new IllegalStateException(name + ": initial login");
+        }
+
+        LongAdder ops = new LongAdder();
+        LongAdder refused = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                FakeSession intruder = new FakeSession();
+                while (System.nanoTime() < deadline) {
+                    // one thread at a time per user, so "re-login" failing means a real bug
+                    int u = random.nextInt(users);
+                    synchronized (owners[u]) {
+                        index.logout(ids[u], owners[u]);
+                        if (!index.login(ids[u], owners[u])) throw new IllegalStateException("re-login");
+                        if (index.login(ids[u], intruder)) throw new IllegalStateException("duplicate accepted");
+                    }
+                    refused.increment();
+                    ops.add(3);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) f.get();
+        pool.shutdown();
+        return new long[] { ops.sum(), refused.sum() };
+    }
+
+    private static void report(String name, long[] result, int seconds, int threads) {
+        double opsPerSec = (double) result[0] / seconds;
+        System.out.printf("%-10s %,14.0f %12.1f %,14d%n",
+                name, opsPerSec, 1e9 * threads / opsPerSec, result[1]);
+    }
+
+    /** Just enough of a session for the indexes: an info map. */
+    static final class FakeSession implements ClientSession {
+        private final Map<String, Object> info = new ConcurrentHashMap<>();
+
+        @Override
+        public Object getInfo(String infoType) { return info.get(infoType); }
+
+        @Override
+        public void setInfo(String infoType, Object value) {
+            if (value == null) info.remove(infoType);
+            else info.put(infoType, value);
+        }
+
+        @Override
+        public void sendToClient(Object msg) throws IOException {}
+
+        @Override
+        public void close() throws IOException {}
+    }
+}
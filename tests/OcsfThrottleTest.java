@@ -0,0 +1,138 @@
+package tests;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import edu.seg2105.edu.server.backend.EchoServer;
+import edu.seg2105.edu.server.backend.LoginAdmission;
+import edu.seg2105.edu.server.backend.RateLimitPolicy;
+import edu.seg2105.edu.server.backend.RateLimiter;
+
+/**
+ * On the OCSF engine every client's messages are handled under one server
+ * lock, so a wait there would stall everyone. Starts an in-process
+ * EchoServer with a 1/s DELAY rate limit, has one client send a burst that
+ * is held back for seconds, and checks that another client's message still
+ * comes straight back, and that the burst arrives whole and in order. Then
+ * limits logins to 1/s and checks the same while a login waits its turn.
+ *
+ *   java -cp bin:../OCSF/bin tests.OcsfThrottleTest [port]
+ *
+ * Exits 1 on a failed check.
+ */
+public class OcsfThrottleTest {
+
+    private static final long SETTLE_MS = 500;
+    private static final int BURST = 4;
+    private static final long PROMPT_MS = 300; // well under the 1 s the burst waits per message
+
+    private static final PrintStream REPORT = System.out;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length >= 1) ? Integer.parseInt(args[0]) : 5611;
+
+        // The server logs every message; keep that out of the report.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        EchoServer server = new EchoServer(port);
+        server.rateLimiter().setUserLimit(new RateLimiter.Limit(1, 1));
+        server.rateLimiter().setPolicy(RateLimitPolicy.DELAY);
+        server.listen();
+        Thread.sleep(SETTLE_MS);
+        try (Line quiet = Line.login(port, "quiet");
+             Line chatty = Line.login(port, "chatty")) {
+            for (int i = 0; i < BURST; i++) chatty.send("burst " + i);
+            Thread.sleep(100); // the burst is in and being held back
+
+            long start = System.nanoTime();
+            quiet.send("hello");
+            boolean echoed = quiet.waitFor("quiet> hello", PROMPT_MS);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            check("quiet's message comes back while chatty is throttled (" + millis + " ms)", echoed);
+
+            boolean inOrder = true;
+            for (int i = 0; i < BURST; i++) inOrder &= chatty.waitFor("chatty> burst " + i, 2 * 1000);
+            check("chatty's burst arrives whole and in order", inOrder);
+
+            server.admission().setLimit(new RateLimiter.Limit(1, 1));
+            try (Line first = Line.connect(port);
+                 Line queued = Line.connect(port)) {
+                first.send("#login first");
+                queued.send("#login queued"); // a token a second: waits about a second for its turn
+                Thread.sleep(100);
+
+                start = System.nanoTime();
+                quiet.send("still here");
+                echoed = quiet.waitFor("quiet> still here", PROMPT_MS);
+                millis = (System.nanoTime() - start) / 1_000_000;
+                check("quiet's message comes back while a login is queued (" + millis + " ms)", echoed);
+                check("the queued login gets in",
+                        queued.waitFor("queued has logged on.", LoginAdmission.DEFAULT_MAX_QUEUE_MILLIS));
+            }
+        } finally {
+            server.close();
+        }
+        REPORT.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String what, boolean ok) {
+        REPORT.println((ok ? "PASS  " : "FAIL  ") + what);
+        if (!ok) failures++;
+    }
+
+    /** One OCSF-serialized connection. */
+    private static final class Line implements Closeable {
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+
+        private Line(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            in = new ObjectInputStream(socket.getInputStream());
+        }
+
+        static Line connect(int port) throws IOException {
+            return new Line(port);
+        }
+
+        static Line login(int port, String loginId) throws Exception {
+            Line line = new Line(port);
+            line.send("#login " + loginId);
+            String expected = loginId + " has logged on.";
+            if (!line.waitFor(expected, 5000)) throw new IllegalStateException("no \"" + expected + "\"");
+            return line;
+        }
+
+        void send(String text) throws IOException {
+            out.writeObject(text);
+            out.reset();
+            out.flush();
+        }
+
+        /** Reads until text arrives (skipping other lines), or false after timeoutMillis. */
+        boolean waitFor(String text, long timeoutMillis) throws Exception {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                while (true) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) return false;
+                    socket.setSoTimeout((int) left);
+                    if (text.equals(in.readObject())) return true;
+                }
+            } catch (SocketTimeoutException late) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            try { socket.close(); } catch (IOException ignored) { }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package tests;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+
+import edu.seg2105.edu.server.backend.EchoServer;
+import edu.seg2105.edu.server.backend.NioServerEngine;
+import edu.seg2105.edu.server.backend.ServerEngine;
+import edu.seg2105.edu.server.backend.VirtualThreadServerEngine;
+
+/**
+ * Idle-session load test for the server engines. For each engine it starts
+ * an in-process EchoServer, parks N logged-in idle clients on it, and
+ * reports heap and thread cost per client plus the echo round-trip of one
+ * active client while the N idle ones receive every broadcast.
+ *
+ *   java -cp bin:../OCSF/bin tests.VirtualThreadLoadTest [clients] [ocsf|nio|virtual ...]
+ *
+ * Large N needs a raised descriptor limit (ulimit -n) and, past ~28k, more
+ * than one loopback source address. Bound the virtual-thread carriers with
+ * -Djdk.virtualThreadScheduler.parallelism=N.
+ */
+public class VirtualThreadLoadTest {
+
+    private static final int BASE_PORT = 5600;
+    private static final int PROBE_MESSAGES = 200;
+    private static final long SETTLE_MS = 500;
+
+    private static final PrintStream REPORT = System.out;
+
+    public static void main(String[] args) throws Exception {
+        int clients = (args.length >= 1) ? Integer.parseInt(args[0]) : 2000;
+        List<String> engines = (args.length >= 2)
+                ? Arrays.asList(args).subList(1, args.length)
+                : Arrays.asList("ocsf", "virtual");
+
+        // The server logs every message; keep that out of the report.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        REPORT.printf("%-8s %8s %14s %12s %10s %10s %10s%n",
+                "engine", "clients", "heap/client", "threads", "rtt p50", "rtt p99", "rtt max");
+        int port = BASE_PORT;
+        for (String name : engines) {
+            run(name, port++, clients);
+        }
+    }
+
+    private static void run(String name, int port, int clients) throws Exception {
+        EchoServer server = new EchoServer(port);
+        ServerEngine engine;
+        switch (name) {
+            case "nio":     engine = new NioServerEngine(server, port, NioServerEngine.defaultLoopCount()); break;
+            case "virtual": engine = new VirtualThreadServerEngine(server, port); break;
+            default:        engine = server;
+        }
+        engine.listen();
+        Thread.sleep(SETTLE_MS);
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        Drain drain = new Drain();
+        for (int i = 0; i < clients; i++) {
+            drain.add(SocketChannel.open(new InetSocketAddress("localhost", port)), loginBytes("idle" + i));
+        }
+        drain.start();
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (engine.getNumberOfClients() < clients && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(SETTLE_MS);
+
+        long heapPerClient = (usedHeap() - heapBefore) / Math.max(1, clients);
+        int threadsAdded = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        long[] rtt = probe(port);
+
+        REPORT.printf("%-8s %8d %12d B %12d %8.2f ms %8.2f ms %8.2f ms%n",
+                name, engine.getNumberOfClients(), heapPerClient, threadsAdded,
+                rtt[rtt.length / 2] / 1e6, rtt[(int) (rtt.length * 0.99)] / 1e6, rtt[rtt.length - 1] / 1e6);
+
+        drain.stopDraining();
+        drain.join();
+        engine.close();
+        drain.closeAll();
+        Thread.sleep(SETTLE_MS);
+    }
+
+    /** One active client: send, wait for our own echo, repeat. Sorted round-trips in ns. */
+    private static long[] probe(int port) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true); // measure the server, not Nagle on our side
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            out.writeObject("#login probe");
+            out.reset();
+            out.flush();
+            awaitLine(in, "probe has logged on.");
+
+            long[] rtt = new long[PROBE_MESSAGES];
+            for (int i = 0; i < PROBE_MESSAGES; i++) {
+                long start = System.nanoTime();
+                out.writeObject("ping " + i);
+                out.reset();
+                out.flush();
+                awaitLine(in, "probe> ping " + i);
+                rtt[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(rtt);
+            return rtt;
+        }
+    }
+
+    private static void awaitLine(ObjectInputStream in, String expected) throws Exception {
+        while (!expected.equals(in.readObject())) { /* someone else's line */ }
+    }
+
+    private static byte[] loginBytes(String loginId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject("#login " + loginId);
+        out.reset();
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) { System.gc(); Thread.sleep(100); }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // ---------- Idle clients: one selector thread reads and discards ----------
+    private static class Drain extends Thread {
+        private final Selector selector;
+        private final List<SocketChannel> channels = new ArrayList<>();
+        private volatile boolean running = true;
+
+        Drain() throws IOException {
+            super("idle-drain");
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void add(SocketChannel channel, byte[] login) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(login);
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            channels.add(channel);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+            try {
+                while (running) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        sink.clear();
+                        if (((SocketChannel) key.channel()).read(sink) < 0) key.cancel();
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException ignored) { }
+        }
+
+        void stopDraining() { running = false; }
+
+        void closeAll() {
+            for (SocketChannel c : channels) { try { c.close(); } catch (IOException ignored) { } }
+            try { selector.close(); } catch (IOException ignored) { }
+        }
+    }
+}
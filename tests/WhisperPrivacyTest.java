@@ -0,0 +1,133 @@
+package tests;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+
+import edu.seg2105.edu.server.backend.EchoServer;
+
+/**
+ * Whispers are kept for their target's #resume and nobody else. Starts an
+ * in-process EchoServer, has alice whisper to bob, then checks that eve's
+ * "#join @bob" is refused and replays nothing, while bob, resuming from
+ * sequence 0 after a drop, gets the whisper replayed. Last, a login id
+ * dressed up as a sequence tag ("#seq 999 alice") is refused.
+ *
+ *   java -cp bin:../OCSF/bin tests.WhisperPrivacyTest [port]
+ *
+ * Exits 1 on a failed check.
+ */
+public class WhisperPrivacyTest {
+
+    private static final long SETTLE_MS = 500;
+    private static final String SECRET = "my secret password is hunter2";
+
+    private static final PrintStream REPORT = System.out;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length >= 1) ? Integer.parseInt(args[0]) : 5610;
+
+        // The server logs every message; keep that out of the report.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        EchoServer server = new EchoServer(port);
+        server.listen();
+        Thread.sleep(SETTLE_MS);
+        try {
+            try (Line alice = Line.login(port, "#login alice", "alice has logged on.")) {
+                Line bob = Line.login(port, "#resume bob 0", "bob has logged on.");
+                alice.send("#whisper bob " + SECRET);
+                check("bob gets the whisper", bob.waitFor(SECRET));
+                bob.close(); // dropped: parked for #resume
+                Thread.sleep(SETTLE_MS);
+
+                try (Line eve = Line.login(port, "#login eve", "eve has logged on.")) {
+                    eve.send("#join @bob");
+                    List<String> seen = eve.drain();
+                    check("eve sees no whisper", seen.stream().noneMatch(l -> l.contains("(whisper)")));
+                    check("eve's #join @bob is refused",
+                            seen.stream().noneMatch(l -> l.contains("has joined room @bob")));
+                }
+
+                try (Line back = Line.login(port, "#resume bob 0", "bob has logged on.")) {
+                    check("resumed bob gets the whisper replayed", back.waitFor(SECRET));
+                }
+
+                try (Line forger = Line.connect(port)) {
+                    forger.send("#login #seq 999 alice");
+                    check("a login id posing as a sequence tag is refused",
+                            forger.waitFor("Login ids may not contain spaces"));
+                }
+            }
+        } finally {
+            server.close();
+        }
+        REPORT.println(failures == 0 ? "All checks passed." : failures + " check(s) failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String what, boolean ok) {
+        REPORT.println((ok ? "PASS  " : "FAIL  ") + what);
+        if (!ok) failures++;
+    }
+
+    /** One OCSF-serialized connection, read with a timeout. */
+    private static final class Line implements Closeable {
+        private final Socket socket;
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+
+        private Line(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout((int) SETTLE_MS);
+            out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            in = new ObjectInputStream(socket.getInputStream());
+        }
+
+        static Line connect(int port) throws IOException {
+            return new Line(port);
+        }
+
+        static Line login(int port, String login, String expected) throws Exception {
+            Line line = new Line(port);
+            line.send(login);
+            if (!line.waitFor(expected)) throw new IllegalStateException("no \"" + expected + "\"");
+            return line;
+        }
+
+        void send(String text) throws IOException {
+            out.writeObject(text);
+            out.reset();
+            out.flush();
+        }
+
+        /** Reads until a line containing text, or until the line goes quiet. */
+        boolean waitFor(String text) throws Exception {
+            try {
+                while (true) {
+                    if (in.readObject().toString().contains(text)) return true;
+                }
+            } catch (SocketTimeoutException quiet) {
+                return false;
+            }
+        }
+
+        /** Every line until the line goes quiet. */
+        List<String> drain() throws Exception {
+            List<String> lines = new ArrayList<>();
+            try {
+                while (true) lines.add(in.readObject().toString());
+            } catch (SocketTimeoutException quiet) {
+                return lines;
+            }
+        }
+
+        @Override
+        public void close() {
+            try { socket.close(); } catch (IOException ignored) { }
+        }
+    }
+}
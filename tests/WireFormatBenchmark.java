@@ -0,0 +1,100 @@
+package tests;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import edu.seg2105.client.common.FrameCodec;
+
+/**
+ * Bytes on the wire and CPU per message for OCSF's Java serialization
+ * (writeObject + reset, as sendToClient does) versus FrameCodec frames,
+ * for a few representative chat lines.
+ *
+ *   java -cp bin tests.WireFormatBenchmark [messages]
+ */
+public class WireFormatBenchmark {
+
+    private static final String[] SAMPLES = {
+            "cora> hi",
+            "a1> are we still on for the design review at three, or did it move to tomorrow?",
+            "SERVER MESSAGE> The server is closing.",
+            "bibi> caf\u00e9 \u2013 na\u00efve \u65e5\u672c\u8a9e \u043f\u0440\u0438\u0432\u0435\u0442",
+            stackTrace(),
+    };
+
+    private static final ThreadMXBean CPU = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int messages = (args.length >= 1) ? Integer.parseInt(args[0]) : 200_000;
+
+        System.out.printf("%-10s %8s %12s %12s %12s %12s%n",
+                "sample", "chars", "ser bytes", "frame bytes", "ser ns/msg", "frame ns/msg");
+        for (String sample : SAMPLES) {
+            // warm both paths before measuring
+            serializedRoundTrip(sample, messages / 4);
+            framedRoundTrip(sample, messages / 4);
+
+            long[] ser = serializedRoundTrip(sample, messages);
+            long[] frm = framedRoundTrip(sample, messages);
+            System.out.printf("%-10s %8d %12d %12d %12.1f %12.1f%n",
+                    label(sample), sample.length(),
+                    ser[0] / messages, frm[0] / messages,
+                    (double) ser[1] / messages, (double) frm[1] / messages);
+        }
+    }
+
+    /** {total bytes, CPU ns} to encode and then decode messages copies of text. */
+    private static long[] serializedRoundTrip(String text, int messages) throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(wire);
+        out.flush();
+        int header = wire.size();
+
+        long start = CPU.getCurrentThreadCpuTime();
+        for (int i = 0; i < messages; i++) {
+            out.writeObject(text);
+            out.reset();
+        }
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        for (int i = 0; i < messages; i++) {
+            if (in.readObject() == null) throw new IllegalStateException();
+        }
+        long cpu = CPU.getCurrentThreadCpuTime() - start;
+        return new long[] { wire.size() - header, cpu };
+    }
+
+    private static long[] framedRoundTrip(String text, int messages) throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        long start = CPU.getCurrentThreadCpuTime();
+        for (int i = 0; i < messages; i++) {
+            wire.write(FrameCodec.encode(text));
+        }
+        ByteBuffer buf = ByteBuffer.wrap(wire.toByteArray());
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        for (int i = 0; i < messages; i++) {
+            if (decoder.next(buf) == null) throw new IllegalStateException();
+        }
+        long cpu = CPU.getCurrentThreadCpuTime() - start;
+        return new long[] { wire.size(), cpu };
+    }
+
+    private static String label(String sample) {
+        if (sample.length() > 200) return "stack";
+        if (sample.startsWith("SERVER")) return "notice";
+        if (sample.length() > 40) return "sentence";
+        return sample.chars().anyMatch(c -> c > 127) ? "unicode" : "short";
+    }
+
+    private static String stackTrace() {
+        StringWriter sw = new StringWriter();
+        new IOException("Connection reset by peer").printStackTrace(new PrintWriter(sw));
+        StringBuilder sb = new StringBuilder("dev> ");
+        while (sb.length() < 2000) sb.append(sw);
+        return sb.toString();
+    }
+}